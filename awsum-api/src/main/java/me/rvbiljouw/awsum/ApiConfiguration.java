@@ -23,20 +23,30 @@
  */
 package me.rvbiljouw.awsum;
 
+import com.wrapper.spotify.IHttpManager;
+import com.wrapper.spotify.SpotifyHttpManager;
+import me.rvbiljouw.awsum.spotify.SpotifyCircuitBreaker;
 import me.rvbiljouw.awsum.spotify.SpotifyClient;
+import me.rvbiljouw.awsum.spotify.SpotifyExecutor;
+import me.rvbiljouw.awsum.spotify.SpotifyRateLimiter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.task.TaskExecutorBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.Scope;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
 
 /**
  * @author rvbiljouw
  */
 @Configuration
+@EnableScheduling
 @PropertySource(value = "classpath:api.properties", ignoreResourceNotFound = true)
 public class ApiConfiguration {
     private @Value("${spotify.clientId:undefined}")
@@ -45,14 +55,108 @@ public class ApiConfiguration {
     String spotifyClientSecret;
     private @Value("${spotify.redirectURI:undefined}")
     String spotifyRedirectUri;
+    private @Value("${spotify.http.connectTimeout:5000}")
+    int spotifyConnectTimeout;
+    private @Value("${spotify.http.socketTimeout:10000}")
+    int spotifySocketTimeout;
+    private @Value("${spotify.http.connectionRequestTimeout:5000}")
+    int spotifyConnectionRequestTimeout;
+    private @Value("${spotify.async.threads:16}")
+    int spotifyAsyncThreads;
+    private @Value("${spotify.async.queueCapacity:1000}")
+    int spotifyAsyncQueueCapacity;
+    private @Value("${spotify.async.timeout:15s}")
+    Duration spotifyAsyncTimeout;
+    private @Value("${spotify.rateLimit.permitsPerSecond:10}")
+    double spotifyPermitsPerSecond;
+    private @Value("${spotify.rateLimit.burst:20}")
+    int spotifyBurst;
+    private @Value("${spotify.rateLimit.nodes:1}")
+    int spotifyRateLimitNodes;
+    private @Value("${spotify.circuitBreaker.windowSize:20}")
+    int spotifyCircuitWindowSize;
+    private @Value("${spotify.circuitBreaker.minimumCalls:10}")
+    int spotifyCircuitMinimumCalls;
+    private @Value("${spotify.circuitBreaker.failureRateThreshold:0.5}")
+    double spotifyCircuitFailureRateThreshold;
+    private @Value("${spotify.circuitBreaker.openDuration:30s}")
+    Duration spotifyCircuitOpenDuration;
+    private @Value("${auth.login.threads:8}")
+    int loginThreads;
+    private @Value("${auth.login.queueCapacity:100}")
+    int loginQueueCapacity;
+
+    /**
+     * The HTTP manager behind every Spotify client; it holds the kept-alive connections to Spotify.
+     */
+    @Bean
+    IHttpManager spotifyHttpManager() {
+        return new SpotifyHttpManager.Builder()
+                .setConnectTimeout(spotifyConnectTimeout)
+                .setSocketTimeout(spotifySocketTimeout)
+                .setConnectionRequestTimeout(spotifyConnectionRequestTimeout)
+                .build();
+    }
+
+    /**
+     * Meters the calls of every client against Spotify's app-wide rate limit. The limiter only sees the calls
+     * of this node, so each of the {@code spotify.rateLimit.nodes} nodes gets an equal share of the limit.
+     */
+    @Bean
+    SpotifyRateLimiter spotifyRateLimiter() {
+        final int nodes = Math.max(1, spotifyRateLimitNodes);
+        return new SpotifyRateLimiter(spotifyPermitsPerSecond / nodes, Math.max(1, spotifyBurst / nodes));
+    }
+
+    /**
+     * Fails Spotify calls fast while Spotify is down, so requests don't queue up behind it.
+     */
+    @Bean
+    SpotifyCircuitBreaker spotifyCircuitBreaker() {
+        return new SpotifyCircuitBreaker(spotifyCircuitWindowSize, spotifyCircuitMinimumCalls,
+                spotifyCircuitFailureRateThreshold, spotifyCircuitOpenDuration);
+    }
+
+    /**
+     * Runs the asynchronous Spotify calls of every client, off the servlet threads.
+     */
+    @Bean(destroyMethod = "close")
+    SpotifyExecutor spotifyExecutor(SpotifyRateLimiter spotifyRateLimiter, SpotifyCircuitBreaker spotifyCircuitBreaker) {
+        return new SpotifyExecutor(spotifyAsyncThreads, spotifyAsyncQueueCapacity, spotifyAsyncTimeout,
+                spotifyRateLimiter, spotifyCircuitBreaker);
+    }
+
+    /**
+     * Spring Boot's own task executor, which it leaves out as soon as any other executor is declared.
+     */
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    ThreadPoolTaskExecutor applicationTaskExecutor(TaskExecutorBuilder taskExecutorBuilder) {
+        return taskExecutorBuilder.build();
+    }
+
+    /**
+     * Runs the database part of logins once Spotify has answered. Its queue is bounded, and logins that don't
+     * fit in it are refused instead of waiting behind the ones that do.
+     */
+    @Bean(name = "loginExecutor")
+    ThreadPoolTaskExecutor loginExecutor() {
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(loginThreads);
+        executor.setMaxPoolSize(loginThreads);
+        executor.setQueueCapacity(loginQueueCapacity);
+        executor.setThreadNamePrefix("login-");
+        return executor;
+    }
 
     @Bean(name = "serverSpotifyClient")
     @Scope(value = "singleton")
-    SpotifyClient getServerSpotifyClient() throws URISyntaxException {
+    SpotifyClient getServerSpotifyClient(IHttpManager spotifyHttpManager, SpotifyExecutor spotifyExecutor) throws URISyntaxException {
         return new SpotifyClient.Builder()
                 .setClientId(spotifyClientId)
                 .setClientSecret(spotifyClientSecret)
                 .setRedirectURI(new URI(spotifyRedirectUri))
+                .setHttpManager(spotifyHttpManager)
+                .setExecutor(spotifyExecutor)
                 .build();
     }
 
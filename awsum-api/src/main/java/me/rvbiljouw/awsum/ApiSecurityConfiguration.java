@@ -24,6 +24,7 @@
 package me.rvbiljouw.awsum;
 
 import me.rvbiljouw.awsum.auth.ApiAuthenticationFilter;
+import me.rvbiljouw.awsum.auth.RecentWriterFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -39,6 +40,8 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 public class ApiSecurityConfiguration extends WebSecurityConfigurerAdapter {
     @Autowired
     private ApiAuthenticationFilter authFilter;
+    @Autowired
+    private RecentWriterFilter recentWriterFilter;
 
     @Override
     protected void configure(HttpSecurity http) throws Exception {
@@ -48,6 +51,7 @@ public class ApiSecurityConfiguration extends WebSecurityConfigurerAdapter {
                 .anyRequest().authenticated()
                 .and()
                 .addFilterAfter(authFilter, UsernamePasswordAuthenticationFilter.class)
+                .addFilterAfter(recentWriterFilter, ApiAuthenticationFilter.class)
                 .cors().and().csrf().disable();
     }
 
@@ -23,8 +23,7 @@
  */
 package me.rvbiljouw.awsum.auth;
 
-import me.rvbiljouw.awsum.model.AuthToken;
-import me.rvbiljouw.awsum.repository.AuthTokenRepository;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -34,6 +33,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 
@@ -44,20 +44,31 @@ import java.util.Optional;
  */
 @Component
 public class ApiAuthenticationFilter extends OncePerRequestFilter {
-    private final AuthTokenRepository authTokenRepository;
+    private final AuthTokenCache authTokenCache;
+    private final SignedTokenCodec signedTokenCodec;
+    private final TokenRevocationFilter tokenRevocationFilter;
+    private final TokenExpiryPolicy tokenExpiryPolicy;
 
-    public ApiAuthenticationFilter(AuthTokenRepository authTokenRepository) {
-        this.authTokenRepository = authTokenRepository;
+    public ApiAuthenticationFilter(
+            AuthTokenCache authTokenCache,
+            SignedTokenCodec signedTokenCodec,
+            TokenRevocationFilter tokenRevocationFilter,
+            TokenExpiryPolicy tokenExpiryPolicy) {
+        this.authTokenCache = authTokenCache;
+        this.signedTokenCodec = signedTokenCodec;
+        this.tokenRevocationFilter = tokenRevocationFilter;
+        this.tokenExpiryPolicy = tokenExpiryPolicy;
     }
 
     @Override
     public void doFilterInternal(HttpServletRequest servletRequest, HttpServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
         final String authHeader = servletRequest.getHeader("Authorization");
-        final Optional<AuthToken> token = retrieveToken(authHeader);
-        if (!token.isPresent()) {
+        final Optional<String> token = extractToken(authHeader);
+        final Optional<AuthPrincipal> principal = token.flatMap(this::retrieveToken);
+        if (!principal.isPresent()) {
             SecurityContextHolder.getContext().setAuthentication(null);
         } else {
-            SecurityContextHolder.getContext().setAuthentication(new AuthenticatedUser(token.get()));
+            SecurityContextHolder.getContext().setAuthentication(new AuthenticatedUser(principal.get(), token.get()));
         }
         filterChain.doFilter(servletRequest, servletResponse);
     }
@@ -73,16 +84,38 @@ public class ApiAuthenticationFilter extends OncePerRequestFilter {
     }
 
     /**
-     * Checks the validity of the token and fetch it from the database
+     * Checks the validity of the header and extract the bearer token from it
      *
-     * @param token token string
-     * @return an auth token if it was found
+     * @param authHeader header value
+     * @return the token string if the header was valid
      */
-    private Optional<AuthToken> retrieveToken(String token) {
-        if (!isTokenValid(token)) {
+    private Optional<String> extractToken(String authHeader) {
+        if (!isTokenValid(authHeader)) {
             return Optional.empty();
         }
-        return authTokenRepository.findByToken(token.replace("Bearer ", ""));
+        return Optional.of(authHeader.replace("Bearer ", ""));
+    }
+
+    /**
+     * Resolves a token to a principal. Signed tokens are verified in memory,
+     * opaque tokens are resolved through the token cache and checked for expiry.
+     *
+     * @param token token string
+     * @return a principal if the token was found and hasn't expired
+     */
+    private Optional<AuthPrincipal> retrieveToken(String token) {
+        if (signedTokenCodec.isSignedToken(token)) {
+            return signedTokenCodec.verify(token)
+                    .filter(signedToken -> !tokenRevocationFilter.isRevoked(signedToken))
+                    .map(SignedToken::toPrincipal);
+        }
+
+        final LocalDateTime now = LocalDateTime.now();
+        return authTokenCache.get(token)
+                .filter(principal -> !tokenExpiryPolicy.isExpired(principal, now))
+                .map(principal -> tokenExpiryPolicy.needsTouch(principal, now)
+                        ? authTokenCache.touch(token, principal, now)
+                        : principal);
     }
 
 }
@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.auth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
+import me.rvbiljouw.awsum.repository.AuthTokenRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * A bounded, in-process cache that resolves bearer tokens to {@link AuthPrincipal} snapshots.
+ * Entries are evicted by size and age, so a token that is revoked behind our back (i.e. not
+ * through {@link me.rvbiljouw.awsum.service.AuthTokenService}) stays valid for at most one TTL.
+ * <p>
+ * Unknown tokens are shielded from the database as well: tokens that the {@link KnownTokenFilter}
+ * hasn't seen, even after its next sync, are rejected outright, and tokens that recently missed
+ * the database anyway are remembered by their digest for a short while.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class AuthTokenCache {
+    private final AuthTokenRepository authTokenRepository;
+    private final KnownTokenFilter knownTokenFilter;
+    private final Cache<String, AuthPrincipal> principals;
+    private final Cache<HashCode, Boolean> recentMisses;
+
+    public AuthTokenCache(
+            AuthTokenRepository authTokenRepository,
+            KnownTokenFilter knownTokenFilter,
+            @Value("${auth.tokenCache.maximumSize:10000}") long maximumSize,
+            @Value("${auth.tokenCache.expireAfterWrite:5m}") Duration expireAfterWrite,
+            @Value("${auth.tokenShield.missCache.maximumSize:100000}") long missMaximumSize,
+            @Value("${auth.tokenShield.missCache.expireAfterWrite:30s}") Duration missExpireAfterWrite) {
+        this.authTokenRepository = authTokenRepository;
+        this.knownTokenFilter = knownTokenFilter;
+        this.principals = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        this.recentMisses = CacheBuilder.newBuilder()
+                .maximumSize(missMaximumSize)
+                .expireAfterWrite(missExpireAfterWrite)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Resolves a token to a principal, only hitting the database on a cache miss
+     * for tokens that might exist.
+     *
+     * @param token token string
+     * @return a principal if the token exists
+     */
+    public Optional<AuthPrincipal> get(String token) {
+        final AuthPrincipal cached = principals.getIfPresent(token);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        final byte[] digest = AuthToken.digest(token);
+        if (!knownTokenFilter.mightExist(digest)) {
+            return Optional.empty();
+        }
+        final HashCode missKey = HashCode.fromBytes(digest);
+        if (recentMisses.getIfPresent(missKey) != null) {
+            return Optional.empty();
+        }
+
+        final Optional<AuthPrincipal> loaded = authTokenRepository.findPrincipalByTokenHash(digest);
+        if (loaded.isPresent()) {
+            principals.put(token, loaded.get());
+        } else {
+            recentMisses.put(missKey, Boolean.TRUE);
+        }
+        return loaded;
+    }
+
+    /**
+     * Primes the cache with a freshly created token
+     *
+     * @param token     token string
+     * @param principal the token's principal
+     */
+    public void put(String token, AuthPrincipal principal) {
+        knownTokenFilter.add(token);
+        recentMisses.invalidate(HashCode.fromBytes(AuthToken.digest(token)));
+        principals.put(token, principal);
+    }
+
+    /**
+     * Records that a token was used just now, both in the database and the cache
+     *
+     * @param token     token string
+     * @param principal the token's principal
+     * @param now       the current time
+     * @return an updated principal
+     */
+    public AuthPrincipal touch(String token, AuthPrincipal principal, LocalDateTime now) {
+        authTokenRepository.touch(principal.getTokenId(), now);
+        final AuthPrincipal touched = principal.withTokenLastUsedAt(now);
+        principals.put(token, touched);
+        return touched;
+    }
+
+    /**
+     * Removes a single token from the cache
+     *
+     * @param token token string
+     */
+    public void invalidate(String token) {
+        principals.invalidate(token);
+    }
+
+    /**
+     * Removes all tokens from the cache
+     */
+    public void invalidateAll() {
+        principals.invalidateAll();
+        recentMisses.invalidateAll();
+    }
+
+    /**
+     * @return hit, miss and eviction statistics since startup
+     */
+    public CacheStats getStats() {
+        return principals.stats();
+    }
+
+    /**
+     * @return statistics of the recent misses cache, where hits are rejected tokens
+     */
+    public CacheStats getMissStats() {
+        return recentMisses.stats();
+    }
+}
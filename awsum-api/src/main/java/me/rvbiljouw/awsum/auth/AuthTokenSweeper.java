@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.auth;
+
+import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.repository.AuthTokenRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Periodically deletes expired {@link AuthToken} rows. Expired tokens are found by walking the
+ * primary key in bounded batches, and every batch is deleted in its own short transaction, so the
+ * sweep never holds locks on more than one batch at a time.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class AuthTokenSweeper {
+    private static final Logger logger = LoggerFactory.getLogger(AuthTokenSweeper.class);
+
+    private final AuthTokenRepository authTokens;
+    private final TokenExpiryPolicy tokenExpiryPolicy;
+    private final int batchSize;
+
+    public AuthTokenSweeper(
+            AuthTokenRepository authTokens,
+            TokenExpiryPolicy tokenExpiryPolicy,
+            @Value("${auth.tokens.sweepBatchSize:500}") int batchSize) {
+        this.authTokens = authTokens;
+        this.tokenExpiryPolicy = tokenExpiryPolicy;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Deletes all tokens that have expired by now
+     *
+     * @return the no. of deleted tokens
+     */
+    @Scheduled(initialDelayString = "${auth.tokens.sweepInterval:600000}",
+            fixedDelayString = "${auth.tokens.sweepInterval:600000}")
+    public long sweep() {
+        final LocalDateTime now = LocalDateTime.now();
+        final LocalDateTime idleSince = tokenExpiryPolicy.idleSince(now);
+        final PageRequest batch = PageRequest.of(0, batchSize);
+
+        long deleted = 0;
+        long afterId = 0;
+        List<Long> expiredIds;
+        do {
+            expiredIds = authTokens.findExpiredTokenIds(now, idleSince, afterId, batch);
+            if (!expiredIds.isEmpty()) {
+                deleted += authTokens.deleteByIds(expiredIds);
+                afterId = expiredIds.get(expiredIds.size() - 1);
+            }
+        } while (expiredIds.size() == batchSize);
+
+        if (deleted > 0) {
+            logger.info("Swept {} expired auth tokens.", deleted);
+        }
+        return deleted;
+    }
+}
@@ -23,26 +23,27 @@
  */
 package me.rvbiljouw.awsum.auth;
 
-import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
 
 /**
- * A wrapper for an authentication token, allowing it
+ * A wrapper for an authenticated principal, allowing it
  * to be inserted into request handlers in the controller(s).
  *
  * @author rvbiljouw
  */
 public class AuthenticatedUser extends PreAuthenticatedAuthenticationToken {
-    private final AuthToken authToken;
+    private final AuthPrincipal principal;
 
-    AuthenticatedUser(AuthToken authToken) {
-        super(authToken.getAccount(), authToken);
-        this.authToken = authToken;
+    AuthenticatedUser(AuthPrincipal principal, String token) {
+        super(principal, token);
+        this.principal = principal;
         setAuthenticated(true);
     }
 
     @Override
     public String getName() {
-        return authToken.getAccount().getDisplayName();
+        // Signed tokens don't carry the display name
+        return principal.getDisplayName() != null ? principal.getDisplayName() : String.valueOf(principal.getAccountId());
     }
 }
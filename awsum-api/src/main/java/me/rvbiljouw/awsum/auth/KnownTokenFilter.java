@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.auth;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.repository.AuthTokenRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Bloom filter of the digests of all known {@link AuthToken}s. Tokens that the filter has never
+ * seen are definitely invalid and can be rejected without looking them up in the database.
+ * <p>
+ * Tokens created on this node are added immediately, tokens created on other nodes are picked up by
+ * a frequent incremental sync. A token that the filter hasn't seen may have been created since the last
+ * sync, so it's only rejected if a sync that started after it was presented hasn't seen it either.
+ * Lookups never touch the database, so a flood of unknown tokens costs a short wait per request but
+ * no queries. The whole filter is rebuilt periodically to forget deleted tokens.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class KnownTokenFilter {
+    private static final int MIN_EXPECTED_INSERTIONS = 10_000;
+
+    private final AuthTokenRepository authTokens;
+    private final double falsePositiveRate;
+    private final Duration syncGrace;
+    private final Duration syncWait;
+    private volatile LocalDateTime lastSyncAt;
+    private volatile BloomFilter<byte[]> known;
+    // Completed by the next sync or rebuild to start
+    private volatile CompletableFuture<Void> nextSync = new CompletableFuture<>();
+
+    public KnownTokenFilter(
+            AuthTokenRepository authTokens,
+            @Value("${auth.tokenShield.falsePositiveRate:0.01}") double falsePositiveRate,
+            @Value("${auth.tokenShield.syncGrace:10s}") Duration syncGrace,
+            @Value("${auth.tokenShield.syncWait:2s}") Duration syncWait) {
+        this.authTokens = authTokens;
+        this.falsePositiveRate = falsePositiveRate;
+        this.syncGrace = syncGrace;
+        this.syncWait = syncWait;
+    }
+
+    /**
+     * Rebuilds the filter from scratch, dropping tokens that no longer exist
+     */
+    @PostConstruct
+    @Scheduled(initialDelayString = "${auth.tokenShield.rebuildInterval:600000}",
+            fixedDelayString = "${auth.tokenShield.rebuildInterval:600000}")
+    public synchronized void rebuild() {
+        final CompletableFuture<Void> completing = startSync();
+        try {
+            final LocalDateTime startedAt = LocalDateTime.now();
+            final List<byte[]> hashes = authTokens.findAllTokenHashes();
+            final BloomFilter<byte[]> filter = BloomFilter.create(
+                    Funnels.byteArrayFunnel(),
+                    Math.max(hashes.size() * 2, MIN_EXPECTED_INSERTIONS),
+                    falsePositiveRate);
+            hashes.forEach(filter::put);
+            known = filter;
+            lastSyncAt = startedAt;
+            completing.complete(null);
+        } catch (RuntimeException e) {
+            completing.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the digests of recently created tokens to the filter. The window overlaps with the previous
+     * sync by a grace period, to cover for clock skew between nodes and transactions that committed late.
+     */
+    @Scheduled(fixedDelayString = "${auth.tokenShield.syncInterval:1000}")
+    public synchronized void sync() {
+        final CompletableFuture<Void> completing = startSync();
+        try {
+            final LocalDateTime startedAt = LocalDateTime.now();
+            authTokens.findTokenHashesCreatedSince(lastSyncAt.minus(syncGrace)).forEach(known::put);
+            lastSyncAt = startedAt;
+            completing.complete(null);
+        } catch (RuntimeException e) {
+            completing.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Void> startSync() {
+        final CompletableFuture<Void> completing = nextSync;
+        nextSync = new CompletableFuture<>();
+        return completing;
+    }
+
+    /**
+     * Adds a newly created token to the filter
+     *
+     * @param token token string
+     */
+    public void add(String token) {
+        known.put(AuthToken.digest(token));
+    }
+
+    /**
+     * Checks whether a token might exist. A token that the filter hasn't seen is checked again
+     * after the next sync, which picks it up if it was created on another node in the meantime.
+     *
+     * @param digest the token's digest, see {@link AuthToken#digest(String)}
+     * @return false if the token doesn't exist, true if it might, or if the next sync didn't finish in time
+     */
+    public boolean mightExist(byte[] digest) {
+        if (known.mightContain(digest)) {
+            return true;
+        }
+        try {
+            nextSync.get(syncWait.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return true;
+        }
+        return known.mightContain(digest);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.auth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import me.rvbiljouw.awsum.datasource.RecentWriteMarker;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Gives every request a {@link RecentWriteMarker} scope, so that once it writes, it reads its own writes.
+ * Accounts that wrote are remembered for a short while, and their next requests read from the primary too,
+ * e.g. to list a group they've just created before the replicas have caught up.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class RecentWriterFilter extends OncePerRequestFilter {
+    private final Cache<Long, Boolean> recentWriters;
+
+    public RecentWriterFilter(
+            @Value("${data.routing.recentWriters.maximumSize:100000}") long maximumSize,
+            @Value("${data.routing.recentWriters.window:10s}") Duration window) {
+        this.recentWriters = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(window)
+                .build();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        final Optional<Long> accountId = currentAccountId();
+        RecentWriteMarker.begin(accountId.map(id -> recentWriters.getIfPresent(id) != null).orElse(false));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (RecentWriteMarker.hasWritten()) {
+                accountId.ifPresent(id -> recentWriters.put(id, Boolean.TRUE));
+            }
+            RecentWriteMarker.end();
+        }
+    }
+
+    /**
+     * Forgets every recent writer
+     */
+    public void invalidateAll() {
+        recentWriters.invalidateAll();
+    }
+
+    private static Optional<Long> currentAccountId() {
+        final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !(authentication.getPrincipal() instanceof AuthPrincipal)) {
+            return Optional.empty();
+        }
+        return Optional.of(((AuthPrincipal) authentication.getPrincipal()).getAccountId());
+    }
+}
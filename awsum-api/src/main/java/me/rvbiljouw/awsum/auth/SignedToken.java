@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.auth;
+
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * The claims carried by a signed token, along with its encoded form.
+ *
+ * @author rvbiljouw
+ * @see SignedTokenCodec
+ */
+public final class SignedToken {
+    private final String token;
+    private final String keyId;
+    private final String tokenId;
+    private final long accountId;
+    private final Instant issuedAt;
+    private final Instant expiresAt;
+
+    SignedToken(String token, String keyId, String tokenId, long accountId, Instant issuedAt, Instant expiresAt) {
+        this.token = token;
+        this.keyId = keyId;
+        this.tokenId = tokenId;
+        this.accountId = accountId;
+        this.issuedAt = issuedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public Instant getIssuedAt() {
+        return issuedAt;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Creates a principal from the claims in this token. Signed tokens don't have a database
+     * row and only carry the account id, so the token id and account details are left empty.
+     *
+     * @return a principal
+     */
+    public AuthPrincipal toPrincipal() {
+        return new AuthPrincipal(
+                null,
+                LocalDateTime.ofInstant(issuedAt, ZoneId.systemDefault()),
+                null,
+                LocalDateTime.ofInstant(expiresAt, ZoneId.systemDefault()),
+                null,
+                accountId,
+                null,
+                null,
+                null,
+                null);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.auth;
+
+import com.google.common.base.Splitter;
+import me.rvbiljouw.awsum.model.UserAccount;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Issues and verifies signed tokens. A signed token looks like {@code <keyId>.<payload>.<signature>},
+ * where the payload holds the claims and the signature is an HMAC-SHA256 over the first two parts.
+ * The claims only identify the account; its details are looked up when needed, so they can't go stale.
+ * <p>
+ * Keys are configured as a comma-separated list of {@code keyId:base64Secret} pairs, which allows
+ * for rotation: tokens are signed with the active key, but verified against any known key.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class SignedTokenCodec {
+    private static final String ALGORITHM = "HmacSHA256";
+    // Version 1 also held the display name and Spotify id, after the claims that are still read
+    private static final byte VERSION = 2;
+    private static final char SEPARATOR = '.';
+
+    private final Map<String, SecretKeySpec> keys = new HashMap<>();
+    private final String activeKeyId;
+    private final Duration ttl;
+    private final SecureRandom random = new SecureRandom();
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+    public SignedTokenCodec(
+            @Value("${auth.signedTokens.keys:}") String keys,
+            @Value("${auth.signedTokens.activeKeyId:}") String activeKeyId,
+            @Value("${auth.signedTokens.ttl:30d}") Duration ttl) {
+        Splitter.on(',')
+                .omitEmptyStrings()
+                .trimResults()
+                .withKeyValueSeparator(':')
+                .split(keys)
+                .forEach((keyId, secret) -> this.keys.put(keyId,
+                        new SecretKeySpec(Base64.getDecoder().decode(secret), ALGORITHM)));
+        this.activeKeyId = activeKeyId;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return true if tokens can be issued, i.e. there is an active signing key
+     */
+    public boolean canIssue() {
+        return keys.containsKey(activeKeyId);
+    }
+
+    /**
+     * Checks whether a token string has the shape of a signed token. Opaque tokens never contain a separator.
+     *
+     * @param token token string
+     * @return true if this looks like a signed token
+     */
+    public boolean isSignedToken(String token) {
+        return token.indexOf(SEPARATOR) >= 0;
+    }
+
+    /**
+     * Issues a new signed token for the supplied account
+     *
+     * @param account the account
+     * @return a signed token
+     * @throws IllegalStateException if there is no active signing key
+     */
+    public SignedToken issue(UserAccount account) {
+        if (!canIssue()) {
+            throw new IllegalStateException("No signing key configured for key id: " + activeKeyId);
+        }
+
+        final byte[] tokenIdBytes = new byte[16];
+        random.nextBytes(tokenIdBytes);
+        final String tokenId = encoder.encodeToString(tokenIdBytes);
+        final Instant issuedAt = Instant.now();
+        final Instant expiresAt = issuedAt.plus(ttl);
+
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(VERSION);
+            out.writeUTF(tokenId);
+            out.writeLong(account.getId());
+            out.writeLong(issuedAt.getEpochSecond());
+            out.writeLong(expiresAt.getEpochSecond());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final String signed = activeKeyId + SEPARATOR + encoder.encodeToString(payload.toByteArray());
+        final String token = signed + SEPARATOR + encoder.encodeToString(sign(keys.get(activeKeyId), signed));
+        return new SignedToken(token, activeKeyId, tokenId, account.getId(), issuedAt, expiresAt);
+    }
+
+    /**
+     * Verifies a signed token and extracts its claims
+     *
+     * @param token token string
+     * @return the token's claims, if the signature matches and the token hasn't expired
+     */
+    public Optional<SignedToken> verify(String token) {
+        final int payloadStart = token.indexOf(SEPARATOR);
+        final int signatureStart = token.lastIndexOf(SEPARATOR);
+        if (payloadStart <= 0 || signatureStart == payloadStart) {
+            return Optional.empty();
+        }
+
+        final String keyId = token.substring(0, payloadStart);
+        final SecretKeySpec key = keys.get(keyId);
+        if (key == null) {
+            return Optional.empty();
+        }
+
+        try {
+            final byte[] signature = decoder.decode(token.substring(signatureStart + 1));
+            if (!MessageDigest.isEqual(signature, sign(key, token.substring(0, signatureStart)))) {
+                return Optional.empty();
+            }
+
+            final byte[] payload = decoder.decode(token.substring(payloadStart + 1, signatureStart));
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                final byte version = in.readByte();
+                if (version < 1 || version > VERSION) {
+                    return Optional.empty();
+                }
+                final String tokenId = in.readUTF();
+                final long accountId = in.readLong();
+                final Instant issuedAt = Instant.ofEpochSecond(in.readLong());
+                final Instant expiresAt = Instant.ofEpochSecond(in.readLong());
+                if (!expiresAt.isAfter(Instant.now())) {
+                    return Optional.empty();
+                }
+                return Optional.of(new SignedToken(token, keyId, tokenId, accountId, issuedAt, expiresAt));
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Computes the HMAC of the supplied string
+     *
+     * @param key  signing key
+     * @param data data to sign
+     * @return the signature
+     */
+    private byte[] sign(SecretKeySpec key, String data) {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(data.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Couldn't sign token.", e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.auth;
+
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Decides when opaque tokens expire. A token expires a fixed time after it was created (absolute TTL),
+ * or when it hasn't been used for a while (idle TTL). To keep the idle TTL from turning every request
+ * into a write, the last used timestamp is only refreshed once per touch interval.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class TokenExpiryPolicy {
+    private final Duration ttl;
+    private final Duration idleTtl;
+    private final Duration touchInterval;
+
+    public TokenExpiryPolicy(
+            @Value("${auth.tokens.ttl:90d}") Duration ttl,
+            @Value("${auth.tokens.idleTtl:14d}") Duration idleTtl,
+            @Value("${auth.tokens.touchInterval:1h}") Duration touchInterval) {
+        this.ttl = ttl;
+        this.idleTtl = idleTtl;
+        this.touchInterval = touchInterval;
+    }
+
+    /**
+     * @param createdAt the moment a token was created
+     * @return the moment that token expires, regardless of usage
+     */
+    public LocalDateTime expiresAt(LocalDateTime createdAt) {
+        return createdAt.plus(ttl);
+    }
+
+    /**
+     * @param now the current time
+     * @return tokens that were last used before this moment have expired
+     */
+    public LocalDateTime idleSince(LocalDateTime now) {
+        return now.minus(idleTtl);
+    }
+
+    /**
+     * Checks if a token has expired. Tokens that haven't been assigned an expiry yet never expire.
+     *
+     * @param principal the token's principal
+     * @param now       the current time
+     * @return true if expired
+     */
+    public boolean isExpired(AuthPrincipal principal, LocalDateTime now) {
+        final LocalDateTime expiresAt = principal.getTokenExpiresAt();
+        final LocalDateTime lastUsedAt = principal.getTokenLastUsedAt();
+        return (expiresAt != null && !expiresAt.isAfter(now))
+                || (lastUsedAt != null && !lastUsedAt.isAfter(idleSince(now)));
+    }
+
+    /**
+     * Checks if the last used timestamp of a token is due for a refresh
+     *
+     * @param principal the token's principal
+     * @param now       the current time
+     * @return true if the token should be touched
+     */
+    public boolean needsTouch(AuthPrincipal principal, LocalDateTime now) {
+        final LocalDateTime lastUsedAt = principal.getTokenLastUsedAt();
+        return lastUsedAt == null || !lastUsedAt.plus(touchInterval).isAfter(now);
+    }
+}
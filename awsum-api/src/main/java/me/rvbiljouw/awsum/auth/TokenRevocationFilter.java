@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.auth;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import me.rvbiljouw.awsum.model.RevokedToken;
+import me.rvbiljouw.awsum.repository.RevokedTokenRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Keeps track of revoked signed tokens in a Bloom filter that is periodically rebuilt from the
+ * {@link RevokedToken} table. Only tokens that the filter flags as possibly revoked are checked
+ * against the database, so valid tokens never leave memory.
+ * <p>
+ * Revocations made on this node take effect immediately, those made on other nodes
+ * take effect after the next reload.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class TokenRevocationFilter {
+    private static final int MIN_EXPECTED_INSERTIONS = 1024;
+
+    private final RevokedTokenRepository revokedTokens;
+    private final double falsePositiveRate;
+    private volatile BloomFilter<CharSequence> revoked;
+
+    public TokenRevocationFilter(
+            RevokedTokenRepository revokedTokens,
+            @Value("${auth.revocations.falsePositiveRate:0.01}") double falsePositiveRate) {
+        this.revokedTokens = revokedTokens;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Drops revocations for tokens that have expired by now, and rebuilds the filter from the remaining ones.
+     */
+    @PostConstruct
+    @Scheduled(initialDelayString = "${auth.revocations.reloadInterval:60000}",
+            fixedDelayString = "${auth.revocations.reloadInterval:60000}")
+    public void reload() {
+        final LocalDateTime now = LocalDateTime.now();
+        revokedTokens.deleteExpired(now);
+
+        final List<String> tokenIds = revokedTokens.findActiveTokenIds(now);
+        final BloomFilter<CharSequence> filter = BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.US_ASCII),
+                Math.max(tokenIds.size() * 2, MIN_EXPECTED_INSERTIONS),
+                falsePositiveRate);
+        tokenIds.forEach(filter::put);
+        this.revoked = filter;
+    }
+
+    /**
+     * Checks whether a signed token has been revoked
+     *
+     * @param token the signed token
+     * @return true if revoked
+     */
+    public boolean isRevoked(SignedToken token) {
+        return revoked.mightContain(token.getTokenId()) && revokedTokens.existsByTokenId(token.getTokenId());
+    }
+
+    /**
+     * Revokes a signed token
+     *
+     * @param token the signed token
+     */
+    public void revoke(SignedToken token) {
+        if (!revokedTokens.existsByTokenId(token.getTokenId())) {
+            final RevokedToken revokedToken = new RevokedToken();
+            revokedToken.setTokenId(token.getTokenId());
+            revokedToken.setExpiresAt(LocalDateTime.ofInstant(token.getExpiresAt(), ZoneId.systemDefault()));
+            revokedTokens.save(revokedToken);
+        }
+        revoked.put(token.getTokenId());
+    }
+}
@@ -24,8 +24,11 @@
 package me.rvbiljouw.awsum.controller;
 
 import me.rvbiljouw.awsum.auth.AuthenticatedUser;
-import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.datasource.RecentWriteMarker;
+import me.rvbiljouw.awsum.exception.ApiException;
 import me.rvbiljouw.awsum.model.UserAccount;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
+import me.rvbiljouw.awsum.repository.UserAccountRepository;
 import me.rvbiljouw.awsum.response.SimpleAuthTokenResponse;
 import me.rvbiljouw.awsum.response.SimpleUserAccountResponse;
 import me.rvbiljouw.awsum.service.AuthTokenService;
@@ -34,12 +37,16 @@ import me.rvbiljouw.awsum.spotify.SpotifyClient;
 import me.rvbiljouw.awsum.spotify.exception.SpotifyException;
 import me.rvbiljouw.awsum.spotify.model.SpotifyToken;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controller for handling of authentication-related requests.
@@ -50,27 +57,46 @@ import java.io.IOException;
 public class AuthController {
     private final AuthTokenService authTokenService;
     private final UserAccountService userAccountService;
+    private final UserAccountRepository userAccountRepository;
     private final SpotifyClient spotifyClient;
+    private final Executor loginExecutor;
 
     public AuthController(
             AuthTokenService authTokenService,
             UserAccountService userAccountService,
-            @Qualifier("serverSpotifyClient") SpotifyClient spotifyClient) {
+            UserAccountRepository userAccountRepository,
+            @Qualifier("serverSpotifyClient") SpotifyClient spotifyClient,
+            @Qualifier("loginExecutor") Executor loginExecutor) {
         this.authTokenService = authTokenService;
         this.userAccountService = userAccountService;
+        this.userAccountRepository = userAccountRepository;
         this.spotifyClient = spotifyClient;
+        this.loginExecutor = loginExecutor;
     }
 
+    /**
+     * Retrieve the account of the currently logged in user. Signed tokens only identify the account,
+     * so its details are loaded, from the second-level cache if possible.
+     *
+     * @param user currently logged in user
+     * @return the user's account
+     * @throws ApiException if the account of a signed token no longer exists
+     */
     @RequestMapping("/api/v1/user")
-    public SimpleUserAccountResponse getCurrentAccount(AuthenticatedUser user) {
-        final UserAccount account = (UserAccount) user.getPrincipal();
-        return new SimpleUserAccountResponse(account);
+    public SimpleUserAccountResponse getCurrentAccount(AuthenticatedUser user) throws ApiException {
+        final AuthPrincipal principal = (AuthPrincipal) user.getPrincipal();
+        if (principal.getTokenId() != null) {
+            return new SimpleUserAccountResponse(principal);
+        }
+        return userAccountRepository.findById(principal.getAccountId())
+                .map(SimpleUserAccountResponse::new)
+                .orElseThrow(() -> new ApiException(HttpStatus.FORBIDDEN, "Your account no longer exists."));
     }
 
     @RequestMapping("/api/v1/token")
     public SimpleAuthTokenResponse getCurrentToken(AuthenticatedUser user) {
-        final AuthToken token = (AuthToken) user.getCredentials();
-        return new SimpleAuthTokenResponse(token);
+        final AuthPrincipal principal = (AuthPrincipal) user.getPrincipal();
+        return new SimpleAuthTokenResponse(principal, (String) user.getCredentials());
     }
 
     /**
@@ -88,20 +114,43 @@ public class AuthController {
     /**
      * Receives the callback from the Spotify auth gateway and then creates an account (if one doesn't already exist)
      * and authentication token for the end-user, after which they're redirected to the appropriate frontend URL.
+     * This is processed asynchronously, so no servlet thread waits for Spotify to respond. If any interaction
+     * with the Spotify API fails, the response is the corresponding {@link SpotifyException}; if Spotify times out
+     * or is known to be down, that is a 503. So is a login refused because too many are already waiting.
      *
      * @param code Spotify authorization code
-     * @return a simplified authentication token
-     * @throws SpotifyException if any interaction with the Spotify API fails.
+     * @return a future of a simplified authentication token
      */
     @RequestMapping("/api/v1/callback")
-    public SimpleAuthTokenResponse callback(@RequestParam String code) throws SpotifyException {
-        final SpotifyToken token = spotifyClient.getTokenForAuthorizationCode(code);
-        final SpotifyClient scopedClient = spotifyClient.deriveUserScopedWithToken(token);
-        final String currentUserId = scopedClient.getCurrentUserId();
+    public CompletableFuture<SimpleAuthTokenResponse> callback(@RequestParam String code) {
+        return spotifyClient.getTokenForAuthorizationCodeAsync(code)
+                .thenCompose(token -> spotifyClient.deriveUserScopedWithToken(token)
+                        .getCurrentUserIdAsync()
+                        .thenCompose(currentUserId -> loginAsync(token, currentUserId)));
+    }
 
-        final UserAccount account = userAccountService.createOrUpdateAccountWith(token, currentUserId);
-        final AuthToken authToken = authTokenService.createAuthTokenFor(account);
-        return new SimpleAuthTokenResponse(authToken);
+    private CompletableFuture<SimpleAuthTokenResponse> loginAsync(SpotifyToken token, String currentUserId) {
+        try {
+            return CompletableFuture.supplyAsync(() -> login(token, currentUserId), loginExecutor);
+        } catch (RejectedExecutionException e) {
+            final CompletableFuture<SimpleAuthTokenResponse> refused = new CompletableFuture<>();
+            refused.completeExceptionally(new ApiException(HttpStatus.SERVICE_UNAVAILABLE, "Too many logins in progress."));
+            return refused;
+        }
+    }
+
+    /**
+     * Creates or updates the account and creates a token for it. This runs outside of the request thread,
+     * so it reads its own writes within a {@link RecentWriteMarker} scope of its own.
+     */
+    private SimpleAuthTokenResponse login(SpotifyToken token, String currentUserId) {
+        RecentWriteMarker.begin(false);
+        try {
+            final UserAccount account = userAccountService.createOrUpdateAccountWith(token, currentUserId);
+            return authTokenService.createAuthTokenFor(account);
+        } finally {
+            RecentWriteMarker.end();
+        }
     }
 
 
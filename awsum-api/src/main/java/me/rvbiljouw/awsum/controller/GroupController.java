@@ -27,19 +27,28 @@ import me.rvbiljouw.awsum.auth.AuthenticatedUser;
 import me.rvbiljouw.awsum.exception.ApiException;
 import me.rvbiljouw.awsum.model.UserAccount;
 import me.rvbiljouw.awsum.model.UserGroup;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
+import me.rvbiljouw.awsum.repository.UserAccountRepository;
 import me.rvbiljouw.awsum.repository.UserGroupRepository;
 import me.rvbiljouw.awsum.request.CreateGroupRequest;
+import me.rvbiljouw.awsum.response.CursorPageResponse;
+import me.rvbiljouw.awsum.response.GroupNameAvailabilityResponse;
 import me.rvbiljouw.awsum.response.PageResponse;
 import me.rvbiljouw.awsum.response.SimpleUserAccountResponse;
 import me.rvbiljouw.awsum.response.SimpleUserGroupResponse;
+import me.rvbiljouw.awsum.service.JoinCodeDirectory;
 import me.rvbiljouw.awsum.service.UserGroupService;
+import me.rvbiljouw.awsum.util.PageCursor;
 import org.springframework.http.HttpStatus;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static me.rvbiljouw.awsum.util.BindingUtils.bindingResultToMap;
 
 /**
@@ -49,12 +58,24 @@ import static me.rvbiljouw.awsum.util.BindingUtils.bindingResultToMap;
  */
 @RestController
 public class GroupController {
+    private static final String GROUP_NAME_TAKEN = "A group with that name already exists";
+    private static final int DEFAULT_LIMIT = 25;
+    private static final int MAX_LIMIT = 100;
+
     private final UserGroupService userGroupService;
     private final UserGroupRepository userGroupRepository;
+    private final UserAccountRepository userAccountRepository;
+    private final JoinCodeDirectory joinCodeDirectory;
 
-    public GroupController(UserGroupService userGroupService, UserGroupRepository userGroupRepository) {
+    public GroupController(
+            UserGroupService userGroupService,
+            UserGroupRepository userGroupRepository,
+            UserAccountRepository userAccountRepository,
+            JoinCodeDirectory joinCodeDirectory) {
         this.userGroupService = userGroupService;
         this.userGroupRepository = userGroupRepository;
+        this.userAccountRepository = userAccountRepository;
+        this.joinCodeDirectory = joinCodeDirectory;
     }
 
     public enum GetGroupType {
@@ -68,25 +89,63 @@ public class GroupController {
      * @param type      the type of request
      * @param limitArg  max no. of records to return
      * @param offsetArg no. of records to skip
+     * @param countArg  whether to include the total no. of records, defaults to true
      * @return a page of groups
-     * @throws ApiException if the parameter type doesn't match any known (should never occur!)
+     * @throws ApiException if the limit or offset is invalid, or the parameter type doesn't match any known
      */
     @RequestMapping("/api/v1/groups")
     public PageResponse<SimpleUserGroupResponse> getGroups(
             AuthenticatedUser user,
             @RequestParam GetGroupType type,
             @RequestParam("limit") Optional<Integer> limitArg,
-            @RequestParam("offset") Optional<Integer> offsetArg) throws ApiException {
-        final UserAccount account = (UserAccount) user.getPrincipal();
-        final int limit = limitArg.orElse(25);
-        final int offset = offsetArg.orElse(0);
+            @RequestParam("offset") Optional<Integer> offsetArg,
+            @RequestParam("count") Optional<Boolean> countArg) throws ApiException {
+        final AuthPrincipal principal = (AuthPrincipal) user.getPrincipal();
+        final int limit = limitOf(limitArg);
+        final int offset = offsetOf(offsetArg);
+        final boolean count = countArg.orElse(true);
+        switch (type) {
+            case ALL:
+                return userGroupService.getGroupsInvolvingAccountId(principal.getAccountId(), limit, offset, count);
+            case MEMBER:
+                return userGroupService.getGroupsByMemberId(principal.getAccountId(), limit, offset, count);
+            case OWNER:
+                return userGroupService.getGroupsByOwnerId(principal.getAccountId(), limit, offset, count);
+            default:
+                throw new ApiException(HttpStatus.BAD_REQUEST, "Invalid parameter: type");
+        }
+    }
+
+    /**
+     * Retrieve a page of {@link UserGroup} objects, newest first, starting after the supplied cursor.
+     * An empty cursor requests the first page. Deep pages cost the same as the first one,
+     * as no rows are skipped and nothing is counted.
+     *
+     * @param user      the logged in user
+     * @param type      the type of request
+     * @param cursorArg the next cursor of the previous page
+     * @param limitArg  max no. of records to return
+     * @return a page of groups
+     * @throws ApiException if the cursor or limit is invalid
+     */
+    @RequestMapping(value = "/api/v1/groups", method = {RequestMethod.GET}, params = "cursor")
+    public CursorPageResponse<SimpleUserGroupResponse> getGroupsByCursor(
+            AuthenticatedUser user,
+            @RequestParam GetGroupType type,
+            @RequestParam("cursor") String cursorArg,
+            @RequestParam("limit") Optional<Integer> limitArg) throws ApiException {
+        final PageCursor cursor = PageCursor.decode(cursorArg)
+                .orElseThrow(() -> new ApiException(HttpStatus.BAD_REQUEST, "Invalid parameter: cursor"));
+        final int limit = limitOf(limitArg);
+
+        final AuthPrincipal principal = (AuthPrincipal) user.getPrincipal();
         switch (type) {
             case ALL:
-                return userGroupService.getGroupsInvolvingAccountId(account.getId(), limit, offset);
+                return userGroupService.getGroupsInvolvingAccountId(principal.getAccountId(), cursor, limit);
             case MEMBER:
-                return userGroupService.getGroupsByMemberId(account.getId(), limit, offset);
+                return userGroupService.getGroupsByMemberId(principal.getAccountId(), cursor, limit);
             case OWNER:
-                return userGroupService.getGroupsByOwnerId(account.getId(), limit, offset);
+                return userGroupService.getGroupsByOwnerId(principal.getAccountId(), cursor, limit);
             default:
                 throw new ApiException(HttpStatus.BAD_REQUEST, "Invalid parameter: type");
         }
@@ -98,8 +157,8 @@ public class GroupController {
      * @param request       the create request body
      * @param bindingResult validator results
      * @param user          currently logged in user
-     * @return a simple group object if successful.
-     * @throws ApiException if the request body has errors.
+     * @return a simple group object including its join code if successful.
+     * @throws ApiException if the request body has errors, or the name was taken in the meantime.
      */
     @RequestMapping(value = "/api/v1/groups", method = {RequestMethod.POST})
     public SimpleUserGroupResponse createGroup(
@@ -110,12 +169,21 @@ public class GroupController {
             throw new ApiException(HttpStatus.BAD_REQUEST, bindingResultToMap(bindingResult));
         }
 
-        final UserAccount userAccount = (UserAccount) user.getPrincipal();
-        final UserGroup userGroup = new UserGroup();
-        userGroup.setOwner(userAccount);
-        userGroup.setName(request.getName());
-        userGroupRepository.save(userGroup);
-        return new SimpleUserGroupResponse(userGroup);
+        final UserGroup userGroup = userGroupService.createGroup(getAccount(user), request.getName())
+                .orElseThrow(() -> new ApiException(HttpStatus.BAD_REQUEST,
+                        singletonMap("name", singletonList(GROUP_NAME_TAKEN))));
+        return new SimpleUserGroupResponse(userGroup, true);
+    }
+
+    /**
+     * Checks if a group name is still free. This is answered from memory, so it's cheap enough to call on every keystroke.
+     *
+     * @param name the group name
+     * @return the name and whether it's available
+     */
+    @RequestMapping(value = "/api/v1/groups/names/available")
+    public GroupNameAvailabilityResponse isGroupNameAvailable(@RequestParam String name) {
+        return new GroupNameAvailabilityResponse(name, userGroupService.isGroupNameAvailable(name));
     }
 
     /**
@@ -124,21 +192,24 @@ public class GroupController {
      * @param code join code for the group
      * @param user currently logged in user
      * @return a simple group object if successful
-     * @throws ApiException if the group doesn't exist
+     * @throws ApiException if the group doesn't exist, or the code has expired or been used up
      */
     @RequestMapping(value = "/api/v1/groups/join")
     public SimpleUserGroupResponse joinGroupByCode(
             @RequestParam String code,
             AuthenticatedUser user) throws ApiException {
-        final Optional<UserGroup> groupByCode = userGroupRepository.findByCode(code);
+        final Optional<UserGroup> groupByCode = joinCodeDirectory.resolve(code)
+                .flatMap(userGroupRepository::findById);
         if (!groupByCode.isPresent()) {
             throw new ApiException(HttpStatus.NOT_FOUND, "No group exists for code: " + code);
         }
+        if (!joinCodeDirectory.isUsable(groupByCode.get(), code, LocalDateTime.now())) {
+            throw new ApiException(HttpStatus.GONE, "This code has expired: " + code);
+        }
 
-        final UserAccount account = (UserAccount) user.getPrincipal();
-        final UserGroup userGroup = groupByCode.get();
-        userGroup.getMembers().add(account);
-        userGroupRepository.save(userGroup);
+        final UserAccount account = getAccount(user);
+        final UserGroup userGroup = userGroupService.joinByCode(groupByCode.get(), account)
+                .orElseThrow(() -> new ApiException(HttpStatus.GONE, "This code has been used up: " + code));
         return new SimpleUserGroupResponse(userGroup);
     }
 
@@ -148,9 +219,10 @@ public class GroupController {
      * @param id        the group ID
      * @param limitArg  max no. of records to return
      * @param offsetArg no. of records to skip
+     * @param countArg  whether to include the total no. of records, defaults to true
      * @param user      currently logged in user
      * @return a page of simple account objects
-     * @throws ApiException if the group doesn't exist, or the user
+     * @throws ApiException if the limit or offset is invalid, the group doesn't exist, or the user
      *                      doesn't have an existing relationship
      *                      with the group.
      */
@@ -159,20 +231,65 @@ public class GroupController {
             @PathVariable(value = "id") Long id,
             @RequestParam("limit") Optional<Integer> limitArg,
             @RequestParam("offset") Optional<Integer> offsetArg,
+            @RequestParam("count") Optional<Boolean> countArg,
             AuthenticatedUser user) throws ApiException {
         final Optional<UserGroup> groupById = userGroupRepository.findById(id);
         if (!groupById.isPresent()) {
             throw new ApiException(HttpStatus.NOT_FOUND, "No group exists for id: " + id);
         }
 
-        final UserAccount account = (UserAccount) user.getPrincipal();
-        if (!userGroupService.checkMembership(account, groupById.get())) {
+        final AuthPrincipal principal = (AuthPrincipal) user.getPrincipal();
+        if (!userGroupService.checkMembership(principal.getAccountId(), groupById.get())) {
             throw new ApiException(HttpStatus.FORBIDDEN, "You don't have access to this group.");
         }
 
-        final int limit = limitArg.orElse(25);
+        final int limit = limitOf(limitArg);
+        final int offset = offsetOf(offsetArg);
+        final boolean count = countArg.orElse(true);
+        return userGroupService.getMembersByGroup(id, limit, offset, count);
+    }
+
+    /**
+     * Validates the page size of a request, which has to be between 1 and {@value #MAX_LIMIT}
+     *
+     * @param limitArg the requested page size
+     * @return the page size
+     * @throws ApiException if the page size is out of range
+     */
+    private static int limitOf(Optional<Integer> limitArg) throws ApiException {
+        final int limit = limitArg.orElse(DEFAULT_LIMIT);
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "Invalid parameter: limit");
+        }
+        return limit;
+    }
+
+    /**
+     * Validates the offset of a request, which can't be negative
+     *
+     * @param offsetArg the requested offset
+     * @return the offset
+     * @throws ApiException if the offset is negative
+     */
+    private static int offsetOf(Optional<Integer> offsetArg) throws ApiException {
         final int offset = offsetArg.orElse(0);
-        return userGroupService.getMembersByGroup(id, limit, offset);
+        if (offset < 0) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "Invalid parameter: offset");
+        }
+        return offset;
+    }
+
+    /**
+     * Loads the {@link UserAccount} behind the logged in user, for requests that need to modify it
+     *
+     * @param user currently logged in user
+     * @return the user's account
+     * @throws ApiException if the account no longer exists
+     */
+    private UserAccount getAccount(AuthenticatedUser user) throws ApiException {
+        final AuthPrincipal principal = (AuthPrincipal) user.getPrincipal();
+        return userAccountRepository.findById(principal.getAccountId())
+                .orElseThrow(() -> new ApiException(HttpStatus.FORBIDDEN, "Your account no longer exists."));
     }
 
 }
@@ -25,6 +25,7 @@ package me.rvbiljouw.awsum.exception;
 
 import me.rvbiljouw.awsum.response.ApiErrorResponse;
 import me.rvbiljouw.awsum.spotify.exception.SpotifyException;
+import me.rvbiljouw.awsum.spotify.exception.SpotifyUnavailableException;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpHeaders;
@@ -52,6 +53,12 @@ public class ApiExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    @ExceptionHandler
+    public ResponseEntity<Object> handleSpotifyUnavailableException(SpotifyUnavailableException ex) {
+        final ApiErrorResponse<String> response = new ApiErrorResponse<>(ex.getClass().getSimpleName(), ex.getMessage());
+        return new ResponseEntity<>(response, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler
     public ResponseEntity<Object> handleApiException(ApiException ex) {
         final ApiErrorResponse<Object> response = new ApiErrorResponse<>(ex.getClass().getSimpleName(), ex.getBody());
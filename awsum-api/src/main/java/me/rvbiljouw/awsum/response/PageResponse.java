@@ -26,24 +26,33 @@ package me.rvbiljouw.awsum.response;
 import java.util.List;
 
 /**
+ * A page of a listing. The total no. of records is only present when it was asked for;
+ * whether there's a next page is always known.
+ *
  * @author rvbiljouw
  */
 public class PageResponse<T> {
-    private long maxRecords;
+    private Long maxRecords;
+    private boolean hasNext;
     private List<T> items;
 
     public PageResponse() {
     }
 
-    public PageResponse(long maxRecords, List<T> items) {
+    public PageResponse(Long maxRecords, boolean hasNext, List<T> items) {
         this.maxRecords = maxRecords;
+        this.hasNext = hasNext;
         this.items = items;
     }
 
-    public long getMaxRecords() {
+    public Long getMaxRecords() {
         return maxRecords;
     }
 
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
     public List<T> getItems() {
         return items;
     }
@@ -23,7 +23,7 @@
  */
 package me.rvbiljouw.awsum.response;
 
-import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
@@ -41,12 +41,12 @@ public class SimpleAuthTokenResponse {
     public SimpleAuthTokenResponse() {
     }
 
-    public SimpleAuthTokenResponse(AuthToken token) {
-        this.id = token.getId();
-        this.account = new SimpleUserAccountResponse(token.getAccount());
-        this.token = token.getToken();
-        this.createdAt = token.getCreatedAt();
-        this.updatedAt = token.getUpdatedAt();
+    public SimpleAuthTokenResponse(AuthPrincipal principal, String token) {
+        this.id = principal.getTokenId();
+        this.account = new SimpleUserAccountResponse(principal);
+        this.token = token;
+        this.createdAt = principal.getTokenCreatedAt();
+        this.updatedAt = principal.getTokenUpdatedAt();
     }
 
     public Long getId() {
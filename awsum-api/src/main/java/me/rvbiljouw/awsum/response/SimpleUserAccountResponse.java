@@ -24,6 +24,8 @@
 package me.rvbiljouw.awsum.response;
 
 import me.rvbiljouw.awsum.model.UserAccount;
+import me.rvbiljouw.awsum.projection.AccountSummary;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
@@ -49,6 +51,22 @@ public class SimpleUserAccountResponse {
         this.updatedAt = account.getUpdatedAt();
     }
 
+    public SimpleUserAccountResponse(AuthPrincipal principal) {
+        this.id = principal.getAccountId();
+        this.displayName = principal.getDisplayName();
+        this.spotifyId = principal.getSpotifyId();
+        this.createdAt = principal.getAccountCreatedAt();
+        this.updatedAt = principal.getAccountUpdatedAt();
+    }
+
+    public SimpleUserAccountResponse(AccountSummary summary) {
+        this.id = summary.getId();
+        this.displayName = summary.getDisplayName();
+        this.spotifyId = summary.getSpotifyId();
+        this.createdAt = summary.getCreatedAt();
+        this.updatedAt = summary.getUpdatedAt();
+    }
+
     public Long getId() {
         return id;
     }
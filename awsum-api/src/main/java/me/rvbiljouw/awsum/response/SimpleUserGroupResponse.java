@@ -24,6 +24,7 @@
 package me.rvbiljouw.awsum.response;
 
 import me.rvbiljouw.awsum.model.UserGroup;
+import me.rvbiljouw.awsum.projection.GroupSummary;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
@@ -35,6 +36,9 @@ public class SimpleUserGroupResponse {
     private Long id;
     private SimpleUserAccountResponse owner;
     private String name;
+    private long memberCount;
+    private String code;
+    private LocalDateTime codeExpiresAt;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
@@ -45,10 +49,32 @@ public class SimpleUserGroupResponse {
         this.id = userGroup.getId();
         this.owner = new SimpleUserAccountResponse(userGroup.getOwner());
         this.name = userGroup.getName();
+        this.memberCount = userGroup.getMemberCount();
         this.createdAt = userGroup.getCreatedAt();
         this.updatedAt = userGroup.getUpdatedAt();
     }
 
+    public SimpleUserGroupResponse(GroupSummary summary) {
+        this.id = summary.getId();
+        this.owner = new SimpleUserAccountResponse(summary.getOwner());
+        this.name = summary.getName();
+        this.memberCount = summary.getMemberCount();
+        this.createdAt = summary.getCreatedAt();
+        this.updatedAt = summary.getUpdatedAt();
+    }
+
+    /**
+     * @param userGroup the group
+     * @param withCode  whether to include the join code, which only the owner should see
+     */
+    public SimpleUserGroupResponse(UserGroup userGroup, boolean withCode) {
+        this(userGroup);
+        if (withCode) {
+            this.code = userGroup.getCode();
+            this.codeExpiresAt = userGroup.getCodeExpiresAt();
+        }
+    }
+
     public Long getId() {
         return id;
     }
@@ -61,6 +87,18 @@ public class SimpleUserGroupResponse {
         return name;
     }
 
+    public long getMemberCount() {
+        return memberCount;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public LocalDateTime getCodeExpiresAt() {
+        return codeExpiresAt;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -74,15 +112,18 @@ public class SimpleUserGroupResponse {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SimpleUserGroupResponse that = (SimpleUserGroupResponse) o;
-        return id.equals(that.id) &&
+        return memberCount == that.memberCount &&
+                id.equals(that.id) &&
                 owner.equals(that.owner) &&
                 name.equals(that.name) &&
+                Objects.equals(code, that.code) &&
+                Objects.equals(codeExpiresAt, that.codeExpiresAt) &&
                 createdAt.equals(that.createdAt) &&
                 Objects.equals(updatedAt, that.updatedAt);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, owner, name, createdAt, updatedAt);
+        return Objects.hash(id, owner, name, memberCount, code, codeExpiresAt, createdAt, updatedAt);
     }
 }
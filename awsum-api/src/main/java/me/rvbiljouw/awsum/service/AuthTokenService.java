@@ -23,11 +23,22 @@
  */
 package me.rvbiljouw.awsum.service;
 
+import me.rvbiljouw.awsum.auth.AuthTokenCache;
+import me.rvbiljouw.awsum.auth.SignedToken;
+import me.rvbiljouw.awsum.auth.SignedTokenCodec;
+import me.rvbiljouw.awsum.auth.TokenExpiryPolicy;
+import me.rvbiljouw.awsum.auth.TokenMode;
+import me.rvbiljouw.awsum.auth.TokenRevocationFilter;
 import me.rvbiljouw.awsum.model.AuthToken;
 import me.rvbiljouw.awsum.model.UserAccount;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
 import me.rvbiljouw.awsum.repository.AuthTokenRepository;
+import me.rvbiljouw.awsum.response.SimpleAuthTokenResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.Optional;
 import java.util.UUID;
 
 /**
@@ -38,23 +49,74 @@ import java.util.UUID;
 @Service
 public class AuthTokenService {
     private final AuthTokenRepository authTokens;
+    private final AuthTokenCache authTokenCache;
+    private final SignedTokenCodec signedTokenCodec;
+    private final TokenRevocationFilter tokenRevocationFilter;
+    private final TokenExpiryPolicy tokenExpiryPolicy;
+    private final TokenMode tokenMode;
 
-    public AuthTokenService(AuthTokenRepository authTokens) {
+    public AuthTokenService(
+            AuthTokenRepository authTokens,
+            AuthTokenCache authTokenCache,
+            SignedTokenCodec signedTokenCodec,
+            TokenRevocationFilter tokenRevocationFilter,
+            TokenExpiryPolicy tokenExpiryPolicy,
+            @Value("${auth.tokens.mode:OPAQUE}") TokenMode tokenMode) {
         this.authTokens = authTokens;
+        this.authTokenCache = authTokenCache;
+        this.signedTokenCodec = signedTokenCodec;
+        this.tokenRevocationFilter = tokenRevocationFilter;
+        this.tokenExpiryPolicy = tokenExpiryPolicy;
+        this.tokenMode = tokenMode;
+        if (tokenMode == TokenMode.SIGNED && !signedTokenCodec.canIssue()) {
+            throw new IllegalStateException("Signed tokens are enabled, but no active signing key is configured.");
+        }
     }
 
     /**
-     * Creates a {@link AuthToken} for the supplied user account
+     * Creates a token for the supplied user account. Depending on the configured {@link TokenMode}
+     * this is either a signed token, or an {@link AuthToken} that is stored in the database.
      *
-     * @param account account to create an {@link AuthToken} for
-     * @return a newly created {@link AuthToken}
+     * @param account account to create a token for
+     * @return a simplified version of the newly created token
      */
-    public AuthToken createAuthTokenFor(UserAccount account) {
+    public SimpleAuthTokenResponse createAuthTokenFor(UserAccount account) {
+        if (tokenMode == TokenMode.SIGNED) {
+            final SignedToken signedToken = signedTokenCodec.issue(account);
+            return new SimpleAuthTokenResponse(signedToken.toPrincipal(), signedToken.getToken());
+        }
+
+        final LocalDateTime now = LocalDateTime.now();
         final AuthToken authToken = new AuthToken();
         authToken.setAccount(account);
         authToken.setToken(UUID.randomUUID().toString());
+        authToken.setExpiresAt(tokenExpiryPolicy.expiresAt(now));
+        authToken.setLastUsedAt(now);
         authTokens.save(authToken);
-        return authToken;
+
+        final AuthPrincipal principal = AuthPrincipal.of(authToken);
+        authTokenCache.put(authToken.getToken(), principal);
+        return new SimpleAuthTokenResponse(principal, authToken.getToken());
+    }
+
+    /**
+     * Revokes a token. Opaque tokens are removed from both the database and the token cache,
+     * signed tokens are added to the revocation list.
+     *
+     * @param token token string
+     * @return true if the token existed
+     */
+    public boolean revokeAuthToken(String token) {
+        if (signedTokenCodec.isSignedToken(token)) {
+            final Optional<SignedToken> signedToken = signedTokenCodec.verify(token);
+            signedToken.ifPresent(tokenRevocationFilter::revoke);
+            return signedToken.isPresent();
+        }
+
+        final Optional<AuthToken> authToken = authTokens.findByToken(token);
+        authToken.ifPresent(authTokens::delete);
+        authTokenCache.invalidate(token);
+        return authToken.isPresent();
     }
 
 }
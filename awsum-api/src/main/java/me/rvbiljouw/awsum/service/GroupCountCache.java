@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import me.rvbiljouw.awsum.model.UserGroup;
+import me.rvbiljouw.awsum.repository.UserGroupRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * A short-lived cache for the totals of group listings, so paging through a listing
+ * doesn't run a count over the membership table for every page. The member total of a group
+ * isn't counted at all; it's the member count stored with the group.
+ * Counts are invalidated when a group is created or joined through {@link UserGroupService};
+ * any other change shows up after at most one TTL.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class GroupCountCache {
+    public enum Kind {
+        OWNED, MEMBER_OF, INVOLVING, MEMBERS
+    }
+
+    private final UserGroupRepository userGroups;
+    private final Cache<Key, Long> counts;
+
+    public GroupCountCache(
+            UserGroupRepository userGroups,
+            @Value("${groups.countCache.maximumSize:10000}") long maximumSize,
+            @Value("${groups.countCache.expireAfterWrite:30s}") Duration expireAfterWrite) {
+        this.userGroups = userGroups;
+        this.counts = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Retrieves a count, only hitting the database on a cache miss
+     *
+     * @param kind the kind of listing
+     * @param id   the account id, or the group id for {@link Kind#MEMBERS}
+     * @return the total no. of records in the listing
+     */
+    public long get(Kind kind, long id) {
+        final Key key = new Key(kind, id);
+        final Long cached = counts.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long loaded = loader(kind, id).getAsLong();
+        counts.put(key, loaded);
+        return loaded;
+    }
+
+    /**
+     * Removes a single count from the cache
+     *
+     * @param kind the kind of listing
+     * @param id   the account id, or the group id for {@link Kind#MEMBERS}
+     */
+    public void invalidate(Kind kind, long id) {
+        counts.invalidate(new Key(kind, id));
+    }
+
+    /**
+     * Removes all counts from the cache
+     */
+    public void invalidateAll() {
+        counts.invalidateAll();
+    }
+
+    /**
+     * @return hit, miss and eviction statistics since startup
+     */
+    public CacheStats getStats() {
+        return counts.stats();
+    }
+
+    private LongSupplier loader(Kind kind, long id) {
+        switch (kind) {
+            case OWNED:
+                return () -> userGroups.countByOwnerId(id);
+            case MEMBER_OF:
+                return () -> userGroups.countByMemberId(id);
+            case INVOLVING:
+                return () -> userGroups.countInvolvingAccountId(id);
+            case MEMBERS:
+                return () -> userGroups.findById(id).map(UserGroup::getMemberCount).orElse(0L);
+            default:
+                throw new IllegalArgumentException("Unknown count kind: " + kind);
+        }
+    }
+
+    private static final class Key {
+        private final Kind kind;
+        private final long id;
+
+        private Key(Kind kind, long id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return id == key.id && kind == key.kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, id);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import me.rvbiljouw.awsum.repository.GroupMembershipRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * A cache of membership checks per (group, account) pair, backed by an existence query
+ * on the membership table, so checking access never loads a group's members.
+ * Entries are invalidated when an account joins through {@link UserGroupService}. Non-members are only
+ * remembered for a few seconds, since a join on another node can't invalidate them here.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class GroupMembershipCache {
+    private final GroupMembershipRepository groupMemberships;
+    private final Cache<Key, Boolean> memberships;
+    private final Cache<Key, Boolean> nonMembers;
+
+    public GroupMembershipCache(
+            GroupMembershipRepository groupMemberships,
+            @Value("${groups.membershipCache.maximumSize:100000}") long maximumSize,
+            @Value("${groups.membershipCache.expireAfterWrite:10m}") Duration expireAfterWrite,
+            @Value("${groups.membershipCache.negativeExpireAfterWrite:5s}") Duration negativeExpireAfterWrite) {
+        this.groupMemberships = groupMemberships;
+        this.memberships = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        this.nonMembers = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(negativeExpireAfterWrite)
+                .build();
+    }
+
+    /**
+     * Checks if an account is a member of a group, only hitting the database on a cache miss
+     *
+     * @param groupId   the group id
+     * @param accountId the account id
+     * @return true if a member, false if not
+     */
+    public boolean isMember(long groupId, long accountId) {
+        final Key key = new Key(groupId, accountId);
+        if (memberships.getIfPresent(key) != null) {
+            return true;
+        }
+        if (nonMembers.getIfPresent(key) != null) {
+            return false;
+        }
+
+        final boolean loaded = groupMemberships.existsMember(groupId, accountId);
+        if (loaded) {
+            memberships.put(key, Boolean.TRUE);
+        } else {
+            nonMembers.put(key, Boolean.TRUE);
+        }
+        return loaded;
+    }
+
+    /**
+     * Removes a single membership from the cache, e.g. after the account joined or left the group
+     *
+     * @param groupId   the group id
+     * @param accountId the account id
+     */
+    public void invalidate(long groupId, long accountId) {
+        final Key key = new Key(groupId, accountId);
+        memberships.invalidate(key);
+        nonMembers.invalidate(key);
+    }
+
+    /**
+     * Removes all memberships from the cache
+     */
+    public void invalidateAll() {
+        memberships.invalidateAll();
+        nonMembers.invalidateAll();
+    }
+
+    /**
+     * @return hit, miss and eviction statistics since startup
+     */
+    public CacheStats getStats() {
+        return memberships.stats();
+    }
+
+    private static final class Key {
+        private final long groupId;
+        private final long accountId;
+
+        private Key(long groupId, long accountId) {
+            this.groupId = groupId;
+            this.accountId = accountId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return groupId == key.groupId && accountId == key.accountId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(groupId, accountId);
+        }
+    }
+}
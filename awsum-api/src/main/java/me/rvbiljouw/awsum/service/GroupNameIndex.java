@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.service;
+
+import me.rvbiljouw.awsum.model.UserGroup;
+import me.rvbiljouw.awsum.repository.UserGroupRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory set of all taken (normalized) group names, so checking whether a name is free
+ * never touches the database. Names taken on this node are added immediately, names taken on
+ * other nodes are picked up by a periodic incremental sync, and the whole set is rebuilt
+ * now and then to free up names of deleted groups.
+ * <p>
+ * Answers are advisory: the unique index on {@link UserGroup#getNormalizedName()} is what
+ * actually prevents two groups from getting the same name.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class GroupNameIndex {
+    private final UserGroupRepository userGroups;
+    private final Duration syncGrace;
+    private volatile LocalDateTime lastSyncAt;
+    private volatile Set<String> taken;
+
+    public GroupNameIndex(
+            UserGroupRepository userGroups,
+            @Value("${groups.nameIndex.syncGrace:10s}") Duration syncGrace) {
+        this.userGroups = userGroups;
+        this.syncGrace = syncGrace;
+    }
+
+    /**
+     * Rebuilds the set from scratch, dropping names that are no longer in use
+     */
+    @PostConstruct
+    @Scheduled(initialDelayString = "${groups.nameIndex.rebuildInterval:600000}",
+            fixedDelayString = "${groups.nameIndex.rebuildInterval:600000}")
+    public synchronized void rebuild() {
+        final LocalDateTime startedAt = LocalDateTime.now();
+        final Set<String> names = ConcurrentHashMap.newKeySet();
+        names.addAll(userGroups.findAllNormalizedNames());
+        taken = names;
+        lastSyncAt = startedAt;
+    }
+
+    /**
+     * Adds the names of recently created groups. The window overlaps with the previous sync
+     * by a grace period, to cover for clock skew between nodes and transactions that committed late.
+     */
+    @Scheduled(fixedDelayString = "${groups.nameIndex.syncInterval:5000}")
+    public synchronized void sync() {
+        final LocalDateTime startedAt = LocalDateTime.now();
+        taken.addAll(userGroups.findNormalizedNamesCreatedSince(lastSyncAt.minus(syncGrace)));
+        lastSyncAt = startedAt;
+    }
+
+    /**
+     * Checks if a group name is free
+     *
+     * @param name a group name
+     * @return true if no known group uses the name, in any casing
+     */
+    public boolean isAvailable(String name) {
+        return !taken.contains(UserGroup.normalizeName(name));
+    }
+
+    /**
+     * Marks a group name as taken
+     *
+     * @param name a group name
+     */
+    public void add(String name) {
+        taken.add(UserGroup.normalizeName(name));
+    }
+}
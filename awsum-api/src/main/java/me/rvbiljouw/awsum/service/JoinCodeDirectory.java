@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import me.rvbiljouw.awsum.model.UserGroup;
+import me.rvbiljouw.awsum.repository.UserGroupRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Resolves join codes to group ids from memory, falling back to a unique index lookup
+ * for codes that were issued by another node or have been evicted.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class JoinCodeDirectory {
+    private final UserGroupRepository userGroups;
+    private final Cache<String, Long> groupIds;
+
+    public JoinCodeDirectory(
+            UserGroupRepository userGroups,
+            @Value("${groups.joinCodes.directory.maximumSize:100000}") long maximumSize,
+            @Value("${groups.joinCodes.directory.expireAfterAccess:1h}") Duration expireAfterAccess) {
+        this.userGroups = userGroups;
+        this.groupIds = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Resolves a code to the id of the group that uses it
+     *
+     * @param code join code
+     * @return a group id if any group uses the code
+     */
+    public Optional<Long> resolve(String code) {
+        final Long cached = groupIds.getIfPresent(code);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        final Optional<Long> loaded = userGroups.findIdByCode(code);
+        loaded.ifPresent(groupId -> groupIds.put(code, groupId));
+        return loaded;
+    }
+
+    /**
+     * Records the code of a freshly created group
+     *
+     * @param code    join code
+     * @param groupId the group id
+     */
+    public void register(String code, long groupId) {
+        groupIds.put(code, groupId);
+    }
+
+    /**
+     * Forgets a code, e.g. after it was replaced
+     *
+     * @param code join code
+     */
+    public void invalidate(String code) {
+        groupIds.invalidate(code);
+    }
+
+    /**
+     * Removes all codes from the directory
+     */
+    public void invalidateAll() {
+        groupIds.invalidateAll();
+    }
+
+    /**
+     * Checks whether a group's code may still be used to join it, ignoring the use limit,
+     * which is enforced atomically when the code is consumed.
+     *
+     * @param userGroup the group
+     * @param code      the code that was presented
+     * @param now       the current time
+     * @return true if the code belongs to the group and hasn't expired
+     */
+    public boolean isUsable(UserGroup userGroup, String code, LocalDateTime now) {
+        return code.equals(userGroup.getCode())
+                && (userGroup.getCodeExpiresAt() == null || userGroup.getCodeExpiresAt().isAfter(now));
+    }
+
+    /**
+     * @return hit, miss and eviction statistics since startup
+     */
+    public CacheStats getStats() {
+        return groupIds.stats();
+    }
+}
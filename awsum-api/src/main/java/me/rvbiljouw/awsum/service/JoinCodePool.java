@@ -0,0 +1,134 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.service;
+
+import me.rvbiljouw.awsum.repository.UserGroupRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.security.SecureRandom;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pool of pre-generated, unused join codes for {@link me.rvbiljouw.awsum.model.UserGroup}s.
+ * Codes are short random strings over a URL-safe alphabet without look-alike characters.
+ * Candidates are checked against the database in batches when the pool is refilled in the
+ * background, so handing out a code is a queue poll and creating a group never retries on collision.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class JoinCodePool {
+    private static final char[] ALPHABET = "ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz23456789".toCharArray();
+
+    private final UserGroupRepository userGroups;
+    private final SecureRandom random = new SecureRandom();
+    private final BlockingQueue<String> codes;
+    private final int poolSize;
+    private final int codeLength;
+    private final int batchSize;
+
+    public JoinCodePool(
+            UserGroupRepository userGroups,
+            @Value("${groups.joinCodes.poolSize:1000}") int poolSize,
+            @Value("${groups.joinCodes.length:10}") int codeLength,
+            @Value("${groups.joinCodes.refillBatchSize:250}") int batchSize) {
+        this.userGroups = userGroups;
+        this.codes = new ArrayBlockingQueue<>(poolSize);
+        this.poolSize = poolSize;
+        this.codeLength = codeLength;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Hands out an unused code. Only if the pool ran dry does this generate and check a code inline.
+     *
+     * @return a code that no group uses yet
+     */
+    public String take() {
+        final String code = codes.poll();
+        if (code != null) {
+            return code;
+        }
+
+        Set<String> fresh;
+        do {
+            fresh = generateUnused(1);
+        } while (fresh.isEmpty());
+        return fresh.iterator().next();
+    }
+
+    /**
+     * Tops the pool up to its full size
+     */
+    @PostConstruct
+    @Scheduled(initialDelayString = "${groups.joinCodes.refillInterval:1000}",
+            fixedDelayString = "${groups.joinCodes.refillInterval:1000}")
+    public void refill() {
+        int missing;
+        while ((missing = poolSize - codes.size()) > 0) {
+            for (String code : generateUnused(Math.min(missing, batchSize))) {
+                if (!codes.offer(code)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the no. of codes that are ready to be handed out
+     */
+    public int available() {
+        return codes.size();
+    }
+
+    /**
+     * Generates a batch of candidate codes and drops the ones that are already taken
+     *
+     * @param count no. of candidates
+     * @return unused codes, possibly fewer than requested
+     */
+    private Set<String> generateUnused(int count) {
+        final Set<String> candidates = new LinkedHashSet<>();
+        while (candidates.size() < count) {
+            candidates.add(generate());
+        }
+        candidates.removeAll(userGroups.findExistingCodes(candidates));
+        candidates.removeAll(codes);
+        return candidates;
+    }
+
+    private String generate() {
+        final char[] code = new char[codeLength];
+        for (int i = 0; i < codeLength; i++) {
+            code[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(code);
+    }
+}
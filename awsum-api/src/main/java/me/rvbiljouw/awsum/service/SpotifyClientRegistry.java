@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import me.rvbiljouw.awsum.model.UserAccount;
+import me.rvbiljouw.awsum.spotify.SpotifyClient;
+import me.rvbiljouw.awsum.spotify.model.SpotifyToken;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * A bounded registry of user-scoped {@link SpotifyClient}s per account, so calling Spotify on behalf of
+ * a user doesn't build a new client each time. All of them are derived from the server client and share
+ * its HTTP connections. When an account's tokens change, its client is updated in place.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class SpotifyClientRegistry {
+    private final SpotifyClient serverClient;
+    private final Cache<Long, SpotifyClient> clients;
+
+    public SpotifyClientRegistry(
+            @Qualifier("serverSpotifyClient") SpotifyClient serverClient,
+            @Value("${spotify.clients.maximumSize:10000}") long maximumSize,
+            @Value("${spotify.clients.expireAfterAccess:30m}") Duration expireAfterAccess) {
+        this.serverClient = serverClient;
+        this.clients = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the client for an account, creating one from the account's stored tokens if there is none
+     *
+     * @param account the account
+     * @return a client scoped to the account
+     */
+    public SpotifyClient get(UserAccount account) {
+        final SpotifyClient cached = clients.getIfPresent(account.getId());
+        if (cached != null) {
+            return cached;
+        }
+        return clients.asMap().computeIfAbsent(account.getId(), id -> serverClient.deriveUserScopedWithToken(
+                new SpotifyToken(account.getSpotifyAccessToken(), account.getSpotifyRefreshToken(),
+                        account.getSpotifyTokenExpiresAt())));
+    }
+
+    /**
+     * Stores new tokens for an account, updating its client in place if there is one
+     *
+     * @param accountId the account id
+     * @param token     the new token
+     * @return the client scoped to the account
+     */
+    public SpotifyClient updateToken(long accountId, SpotifyToken token) {
+        return clients.asMap().compute(accountId, (id, existing) -> {
+            if (existing == null) {
+                return serverClient.deriveUserScopedWithToken(token);
+            }
+            existing.updateToken(token);
+            return existing;
+        });
+    }
+
+    /**
+     * Removes the client for an account
+     *
+     * @param accountId the account id
+     */
+    public void invalidate(long accountId) {
+        clients.invalidate(accountId);
+    }
+
+    /**
+     * Removes all clients
+     */
+    public void invalidateAll() {
+        clients.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return clients.stats();
+    }
+}
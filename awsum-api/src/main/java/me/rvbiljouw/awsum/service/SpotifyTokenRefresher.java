@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.service;
+
+import me.rvbiljouw.awsum.datasource.RecentWriteMarker;
+import me.rvbiljouw.awsum.model.UserAccount;
+import me.rvbiljouw.awsum.repository.UserAccountRepository;
+import me.rvbiljouw.awsum.spotify.SpotifyClient;
+import me.rvbiljouw.awsum.spotify.SpotifyExecutor;
+import me.rvbiljouw.awsum.spotify.model.SpotifyToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Refreshes the Spotify tokens of accounts shortly before they expire, so calls on behalf of a user don't
+ * have to wait for a refresh first. Expiring tokens are found by walking the primary key in bounded batches,
+ * and each batch is refreshed in parallel at background priority, without blocking the scheduler. There is at most
+ * one refresh in flight per account; concurrent requests for the same account share it.
+ * <p>
+ * Every node sweeps, so each account is leased before its token is refreshed: a conditional update moves its expiry
+ * past the refresh window, and only the node whose update went through refreshes it. A failed refresh hands the
+ * lease back, and a lease that is never handed back runs out like an expiring token.
+ *
+ * @author rvbiljouw
+ */
+@Component
+public class SpotifyTokenRefresher {
+    private static final Logger logger = LoggerFactory.getLogger(SpotifyTokenRefresher.class);
+
+    private final UserAccountRepository userAccounts;
+    private final UserAccountService userAccountService;
+    private final SpotifyClientRegistry spotifyClients;
+    private final Executor taskExecutor;
+    private final Duration refreshAhead;
+    private final int batchSize;
+    private final Duration lease;
+    private final AtomicReference<CompletableFuture<Long>> sweep = new AtomicReference<>();
+    private final ConcurrentMap<Long, CompletableFuture<SpotifyClient>> refreshes = new ConcurrentHashMap<>();
+
+    public SpotifyTokenRefresher(
+            UserAccountRepository userAccounts,
+            UserAccountService userAccountService,
+            SpotifyClientRegistry spotifyClients,
+            @Qualifier("applicationTaskExecutor") Executor taskExecutor,
+            @Value("${spotify.tokens.refreshAhead:5m}") Duration refreshAhead,
+            @Value("${spotify.tokens.refreshBatchSize:50}") int batchSize,
+            @Value("${spotify.tokens.refreshLease:2m}") Duration lease) {
+        this.userAccounts = userAccounts;
+        this.userAccountService = userAccountService;
+        this.spotifyClients = spotifyClients;
+        this.taskExecutor = taskExecutor;
+        this.refreshAhead = refreshAhead;
+        this.batchSize = batchSize;
+        this.lease = lease;
+    }
+
+    /**
+     * Gets the client for an account, refreshing its token first only if it is about to expire
+     *
+     * @param account the account
+     * @return a future of a client scoped to the account
+     */
+    public CompletableFuture<SpotifyClient> getClient(UserAccount account) {
+        final LocalDateTime expiresAt = account.getSpotifyTokenExpiresAt();
+        if (expiresAt == null || expiresAt.isAfter(LocalDateTime.now().plus(refreshAhead))) {
+            return CompletableFuture.completedFuture(spotifyClients.get(account));
+        }
+        return refresh(account, SpotifyExecutor.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Refreshes the token of an account and stores it, or joins the refresh that is already in flight for it
+     *
+     * @param account  the account
+     * @param priority the priority of the call to Spotify, if a new refresh is started
+     * @return a future of the account's client, holding the new token
+     */
+    public CompletableFuture<SpotifyClient> refresh(UserAccount account, SpotifyExecutor.Priority priority) {
+        final CompletableFuture<SpotifyClient> refresh = new CompletableFuture<>();
+        final CompletableFuture<SpotifyClient> inFlight = refreshes.putIfAbsent(account.getId(), refresh);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        spotifyClients.get(account)
+                .refreshTokenAsync(priority)
+                .thenApplyAsync(token -> store(account, token), taskExecutor)
+                .whenComplete((client, error) -> {
+                    // Done before completing, so a caller that sees this refresh finish starts a new one
+                    refreshes.remove(account.getId(), refresh);
+                    if (error != null) {
+                        refresh.completeExceptionally(error);
+                    } else {
+                        refresh.complete(client);
+                    }
+                });
+        return refresh;
+    }
+
+    /**
+     * Starts refreshing all tokens that expire within the refresh-ahead window, one batch after the other.
+     * If the previous sweep is still running, it's returned instead of starting another.
+     *
+     * @return a future of the no. of tokens refreshed by this node
+     */
+    @Scheduled(initialDelayString = "${spotify.tokens.refreshInterval:60000}",
+            fixedDelayString = "${spotify.tokens.refreshInterval:60000}")
+    public CompletableFuture<Long> refreshExpiring() {
+        final CompletableFuture<Long> running = sweep.get();
+        if (running != null && !running.isDone()) {
+            return running;
+        }
+        final CompletableFuture<Long> started = new CompletableFuture<>();
+        if (!sweep.compareAndSet(running, started)) {
+            return sweep.get();
+        }
+
+        final LocalDateTime now = LocalDateTime.now();
+        final LocalDateTime leaseUntil = now.plus(refreshAhead).plus(lease).withNano(0);
+        CompletableFuture.supplyAsync(() -> refreshFrom(now.plus(refreshAhead), leaseUntil, 0, 0), taskExecutor)
+                .thenCompose(refreshed -> refreshed)
+                .whenComplete((refreshed, error) -> {
+                    if (error != null) {
+                        logger.warn("Couldn't refresh expiring Spotify tokens.", error);
+                        started.completeExceptionally(error);
+                        return;
+                    }
+                    if (refreshed > 0) {
+                        logger.info("Refreshed {} expiring Spotify tokens.", refreshed);
+                    }
+                    started.complete(refreshed);
+                });
+        return started;
+    }
+
+    /**
+     * Refreshes the batch of expiring accounts after the supplied id, and then chains the next batch
+     */
+    private CompletableFuture<Long> refreshFrom(LocalDateTime before, LocalDateTime leaseUntil, long afterId,
+                                                long refreshedSoFar) {
+        final List<UserAccount> expiring = userAccounts.findWithTokenExpiringBefore(
+                before, afterId, PageRequest.of(0, batchSize));
+        if (expiring.isEmpty()) {
+            return CompletableFuture.completedFuture(refreshedSoFar);
+        }
+
+        final long lastId = expiring.get(expiring.size() - 1).getId();
+        return refreshAll(expiring, leaseUntil).thenComposeAsync(refreshed -> expiring.size() < batchSize
+                ? CompletableFuture.completedFuture(refreshedSoFar + refreshed)
+                : refreshFrom(before, leaseUntil, lastId, refreshedSoFar + refreshed), taskExecutor);
+    }
+
+    /**
+     * Refreshes the accounts of a batch that this node could lease, in parallel. A failed refresh hands the
+     * lease back and is left for the next sweep, or for the next call that needs the account's client.
+     */
+    private CompletableFuture<Long> refreshAll(List<UserAccount> accounts, LocalDateTime leaseUntil) {
+        @SuppressWarnings("unchecked") final CompletableFuture<Boolean>[] results = accounts.stream()
+                .filter(account -> userAccounts.swapTokenExpiry(
+                        account.getId(), account.getSpotifyTokenExpiresAt(), leaseUntil) > 0)
+                .map(account -> refresh(account, SpotifyExecutor.Priority.BACKGROUND)
+                        .thenApply(client -> true)
+                        .exceptionally(error -> {
+                            logger.warn("Couldn't refresh Spotify token of account {}.", account.getId(), error);
+                            userAccounts.swapTokenExpiry(account.getId(), leaseUntil, account.getSpotifyTokenExpiresAt());
+                            return false;
+                        }))
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(results).thenApply(done -> {
+            long refreshed = 0;
+            for (CompletableFuture<Boolean> result : results) {
+                if (result.join()) {
+                    refreshed++;
+                }
+            }
+            return refreshed;
+        });
+    }
+
+    /**
+     * Stores the new token, which also hands it to the account's client. This runs outside of any
+     * request thread, so it reads its own writes within a {@link RecentWriteMarker} scope of its own.
+     */
+    private SpotifyClient store(UserAccount account, SpotifyToken token) {
+        RecentWriteMarker.begin(false);
+        try {
+            final UserAccount updated = userAccountService.createOrUpdateAccountWith(token, account.getSpotifyId());
+            return spotifyClients.get(updated);
+        } finally {
+            RecentWriteMarker.end();
+        }
+    }
+}
@@ -26,9 +26,9 @@ package me.rvbiljouw.awsum.service;
 import me.rvbiljouw.awsum.model.UserAccount;
 import me.rvbiljouw.awsum.repository.UserAccountRepository;
 import me.rvbiljouw.awsum.spotify.model.SpotifyToken;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
-import javax.transaction.Transactional;
 import java.util.Optional;
 
 /**
@@ -39,54 +39,50 @@ import java.util.Optional;
 @Service
 public class UserAccountService {
     private final UserAccountRepository userAccounts;
+    private final SpotifyClientRegistry spotifyClients;
 
-    public UserAccountService(UserAccountRepository userAccounts) {
+    public UserAccountService(
+            UserAccountRepository userAccounts,
+            SpotifyClientRegistry spotifyClients) {
         this.userAccounts = userAccounts;
+        this.spotifyClients = spotifyClients;
     }
 
     /**
-     * Creates or updates a {@link UserAccount} with data retrieved from the Spotify API
+     * Creates or updates a {@link UserAccount} with data retrieved from the Spotify API.
+     * This is a single upsert keyed on the Spotify id that returns the written row, and doesn't write anything
+     * if the tokens are unchanged, in which case the account usually comes from the second-level cache.
+     * Two logins of the same user racing to create the account end up with one account.
+     * New tokens are handed to the account's client in the {@link SpotifyClientRegistry}.
      *
      * @param token         the {@link SpotifyToken}
      * @param currentUserId the corresponding Spotify user ID.
      * @return an up-to-date {@link UserAccount}
      */
-    @Transactional
     public UserAccount createOrUpdateAccountWith(SpotifyToken token, String currentUserId) {
-        Optional<UserAccount> userAccount = userAccounts.findBySpotifyId(currentUserId);
-        return userAccount
-                .map(account -> updateAccountWith(token, account))
-                .orElseGet(() -> createAccountWith(token, currentUserId));
+        final Optional<UserAccount> written = upsertAccountWith(token, currentUserId);
+        if (written.isPresent()) {
+            spotifyClients.updateToken(written.get().getId(), token);
+            return written.get();
+        }
+        return userAccounts.findBySpotifyId(currentUserId)
+                .orElseThrow(() -> new IllegalStateException("No account after upsert for: " + currentUserId));
     }
 
     /**
-     * Updates an existing {@link UserAccount} with data from a {@link SpotifyToken}
-     *
-     * @param token       the {@link SpotifyToken}
-     * @param userAccount the {@link UserAccount}
-     * @return the updated {@link UserAccount}
-     */
-    private UserAccount updateAccountWith(SpotifyToken token, UserAccount userAccount) {
-        userAccount.setSpotifyAccessToken(token.getAccessToken());
-        userAccount.setSpotifyRefreshToken(token.getRefreshToken());
-        userAccounts.save(userAccount);
-        return userAccount;
-    }
-
-    /**
-     * Creates a new account with data from the Spotify API
+     * Upserts the account, retrying once if a concurrent login inserted it first
      *
      * @param token         the {@link SpotifyToken}
      * @param currentUserId the corresponding Spotify user ID.
-     * @return a newly created {@link UserAccount}
+     * @return the account if it was created or updated
      */
-    private UserAccount createAccountWith(SpotifyToken token, String currentUserId) {
-        UserAccount userAccount = new UserAccount();
-        userAccount.setDisplayName(currentUserId);
-        userAccount.setSpotifyAccessToken(token.getAccessToken());
-        userAccount.setSpotifyRefreshToken(token.getRefreshToken());
-        userAccount.setSpotifyId(currentUserId);
-        userAccounts.save(userAccount);
-        return userAccount;
+    private Optional<UserAccount> upsertAccountWith(SpotifyToken token, String currentUserId) {
+        try {
+            return userAccounts.upsertSpotifyTokens(currentUserId, token.getAccessToken(), token.getRefreshToken(),
+                    token.getExpiresAt());
+        } catch (DataIntegrityViolationException e) {
+            return userAccounts.upsertSpotifyTokens(currentUserId, token.getAccessToken(), token.getRefreshToken(),
+                    token.getExpiresAt());
+        }
     }
 }
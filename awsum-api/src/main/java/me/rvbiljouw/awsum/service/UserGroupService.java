@@ -23,18 +23,33 @@
  */
 package me.rvbiljouw.awsum.service;
 
+import me.rvbiljouw.awsum.model.GroupMembership;
+import me.rvbiljouw.awsum.model.GroupRole;
 import me.rvbiljouw.awsum.model.UserAccount;
 import me.rvbiljouw.awsum.model.UserGroup;
+import me.rvbiljouw.awsum.projection.AccountSummary;
+import me.rvbiljouw.awsum.projection.GroupSummary;
+import me.rvbiljouw.awsum.repository.GroupMembershipRepository;
 import me.rvbiljouw.awsum.repository.UserGroupRepository;
+import me.rvbiljouw.awsum.response.CursorPageResponse;
 import me.rvbiljouw.awsum.response.PageResponse;
 import me.rvbiljouw.awsum.response.SimpleUserAccountResponse;
 import me.rvbiljouw.awsum.response.SimpleUserGroupResponse;
-import org.springframework.data.domain.Page;
+import me.rvbiljouw.awsum.util.PageCursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -44,10 +59,41 @@ import java.util.stream.Collectors;
  */
 @Service
 public class UserGroupService {
+    // Returned in place of a member count when the join code was used up
+    private static final long CODE_USED_UP = -1;
+
     private final UserGroupRepository userGroups;
+    private final GroupMembershipRepository groupMemberships;
+    private final GroupCountCache groupCounts;
+    private final GroupMembershipCache groupMembershipCache;
+    private final JoinCodePool joinCodePool;
+    private final JoinCodeDirectory joinCodeDirectory;
+    private final GroupNameIndex groupNameIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration joinCodeTtl;
+    private final long joinCodeMaxUses;
 
-    public UserGroupService(UserGroupRepository userGroups) {
+    public UserGroupService(
+            UserGroupRepository userGroups,
+            GroupMembershipRepository groupMemberships,
+            GroupCountCache groupCounts,
+            GroupMembershipCache groupMembershipCache,
+            JoinCodePool joinCodePool,
+            JoinCodeDirectory joinCodeDirectory,
+            GroupNameIndex groupNameIndex,
+            TransactionTemplate transactionTemplate,
+            @Value("${groups.joinCodes.ttl:0}") Duration joinCodeTtl,
+            @Value("${groups.joinCodes.maxUses:0}") long joinCodeMaxUses) {
         this.userGroups = userGroups;
+        this.groupMemberships = groupMemberships;
+        this.groupCounts = groupCounts;
+        this.groupMembershipCache = groupMembershipCache;
+        this.joinCodePool = joinCodePool;
+        this.joinCodeDirectory = joinCodeDirectory;
+        this.groupNameIndex = groupNameIndex;
+        this.transactionTemplate = transactionTemplate;
+        this.joinCodeTtl = joinCodeTtl;
+        this.joinCodeMaxUses = joinCodeMaxUses;
     }
 
     /**
@@ -56,12 +102,14 @@ public class UserGroupService {
      * @param accountId the account
      * @param limit     max no. of records to return
      * @param offset    no. of records to skip
+     * @param count     whether to include the total no. of records
      * @return a page of groups
      */
-    public PageResponse<SimpleUserGroupResponse> getGroupsByOwnerId(long accountId, int limit, int offset) {
-        final Page<UserGroup> ownedPage = userGroups.findByOwnerId(
+    @Transactional(readOnly = true)
+    public PageResponse<SimpleUserGroupResponse> getGroupsByOwnerId(long accountId, int limit, int offset, boolean count) {
+        final Slice<GroupSummary> ownedSlice = userGroups.findByOwnerId(
                 accountId, limitAndOffset(limit, offset));
-        return pageToPageResponse(ownedPage);
+        return sliceToPageResponse(ownedSlice, count ? groupCounts.get(GroupCountCache.Kind.OWNED, accountId) : null);
     }
 
     /**
@@ -70,64 +118,234 @@ public class UserGroupService {
      * @param memberAccountId the account
      * @param limit           max no. of records to return
      * @param offset          no. of records to skip
+     * @param count           whether to include the total no. of records
      * @return a page of groups
      */
-    public PageResponse<SimpleUserGroupResponse> getGroupsByMemberId(long memberAccountId, int limit, int offset) {
-        final Page<UserGroup> memberOfPage = userGroups.findByMemberId(
+    @Transactional(readOnly = true)
+    public PageResponse<SimpleUserGroupResponse> getGroupsByMemberId(long memberAccountId, int limit, int offset, boolean count) {
+        final Slice<GroupSummary> memberOfSlice = userGroups.findByMemberId(
                 memberAccountId, limitAndOffset(limit, offset));
-        return pageToPageResponse(memberOfPage);
+        return sliceToPageResponse(memberOfSlice, count ? groupCounts.get(GroupCountCache.Kind.MEMBER_OF, memberAccountId) : null);
     }
 
     /**
      * Retrieves a page of groups that somehow involve the supplied account id.
-     * This could be through being a member or owning the group.
+     * This could be through being a member or owning the group; both are read from the account's memberships.
      *
      * @param accountId the account
      * @param limit     max no. of records to return
      * @param offset    no. of records to skip
+     * @param count     whether to include the total no. of records
      * @return a page of groups
      */
-    public PageResponse<SimpleUserGroupResponse> getGroupsInvolvingAccountId(long accountId, int limit, int offset) {
-        final Page<UserGroup> memberOfPage = userGroups.findInvolvingAccountId(
+    @Transactional(readOnly = true)
+    public PageResponse<SimpleUserGroupResponse> getGroupsInvolvingAccountId(long accountId, int limit, int offset, boolean count) {
+        final Slice<GroupSummary> involvingSlice = userGroups.findInvolvingAccountId(
                 accountId, limitAndOffset(limit, offset));
-        return pageToPageResponse(memberOfPage);
+        return sliceToPageResponse(involvingSlice, count ? groupCounts.get(GroupCountCache.Kind.INVOLVING, accountId) : null);
+    }
+
+    /**
+     * Retrieves the page of groups that belong to the supplied account, starting after the cursor.
+     *
+     * @param accountId the account
+     * @param cursor    position of the last group on the previous page
+     * @param limit     max no. of records to return
+     * @return a page of groups
+     */
+    @Transactional(readOnly = true)
+    public CursorPageResponse<SimpleUserGroupResponse> getGroupsByOwnerId(long accountId, PageCursor cursor, int limit) {
+        final List<GroupSummary> owned = userGroups.findByOwnerIdBefore(
+                accountId, cursor.getTime(), cursor.getId(), limitPlusOne(limit));
+        return listToCursorPageResponse(owned, limit, GroupSummary::getCreatedAt);
     }
 
     /**
-     * Checks if the group name is available or already taken
+     * Retrieves the page of groups that the supplied account is a member of, most recently joined first,
+     * starting after the cursor.
+     *
+     * @param memberAccountId the account
+     * @param cursor          position of the last group on the previous page
+     * @param limit           max no. of records to return
+     * @return a page of groups
+     */
+    @Transactional(readOnly = true)
+    public CursorPageResponse<SimpleUserGroupResponse> getGroupsByMemberId(long memberAccountId, PageCursor cursor, int limit) {
+        final List<GroupSummary> memberOf = userGroups.findByMemberIdBefore(
+                memberAccountId, cursor.getTime(), cursor.getId(), limitPlusOne(limit));
+        return listToCursorPageResponse(memberOf, limit, GroupSummary::getJoinedAt);
+    }
+
+    /**
+     * Retrieves the page of groups that somehow involve the supplied account id, most recently joined first,
+     * starting after the cursor.
+     *
+     * @param accountId the account
+     * @param cursor    position of the last group on the previous page
+     * @param limit     max no. of records to return
+     * @return a page of groups
+     */
+    @Transactional(readOnly = true)
+    public CursorPageResponse<SimpleUserGroupResponse> getGroupsInvolvingAccountId(long accountId, PageCursor cursor, int limit) {
+        final List<GroupSummary> involving = userGroups.findInvolvingAccountIdBefore(
+                accountId, cursor.getTime(), cursor.getId(), limitPlusOne(limit));
+        return listToCursorPageResponse(involving, limit, GroupSummary::getJoinedAt);
+    }
+
+    /**
+     * Checks if the group name is available or already taken, ignoring case.
+     * This is answered from memory by the {@link GroupNameIndex}.
      *
      * @param name a group name
      * @return true if free, false if taken
      */
     public boolean isGroupNameAvailable(String name) {
-        return !userGroups.findByName(name).isPresent();
+        return groupNameIndex.isAvailable(name);
     }
 
     /**
-     * Retrieves a page of members for the supplied group id.
+     * Retrieves a page of members for the supplied group id, in the order they joined.
      *
      * @param groupId the group id
      * @param limit   max no. of records to return
      * @param offset  no. of records to skip
+     * @param count   whether to include the total no. of records
      * @return a page of members
      */
-    public PageResponse<SimpleUserAccountResponse> getMembersByGroup(long groupId, int limit, int offset) {
-        final Page<UserAccount> members = userGroups.findMembersByGroupId(groupId, limitAndOffset(limit, offset));
+    @Transactional(readOnly = true)
+    public PageResponse<SimpleUserAccountResponse> getMembersByGroup(long groupId, int limit, int offset, boolean count) {
+        final Slice<AccountSummary> members = groupMemberships.findMembersByGroupId(groupId, limitAndOffset(limit, offset));
         final List<SimpleUserAccountResponse> packed = members.getContent().stream()
                 .map(SimpleUserAccountResponse::new)
                 .collect(Collectors.toList());
-        return new PageResponse<>(members.getTotalElements(), packed);
+        final Long maxRecords = count ? groupCounts.get(GroupCountCache.Kind.MEMBERS, groupId) : null;
+        return new PageResponse<>(maxRecords, members.hasNext(), packed);
+    }
+
+    /**
+     * Creates a new group owned by the supplied account, with a join code from the {@link JoinCodePool}.
+     * A zero TTL or max. no. of uses means the code doesn't expire or is unlimited.
+     * Name uniqueness is enforced by the database, without querying for the name first.
+     * The owner gets an {@link GroupRole#OWNER} membership in the same transaction.
+     *
+     * @param owner the owner
+     * @param name  the group name
+     * @return the created group, or nothing if the name is taken
+     */
+    public Optional<UserGroup> createGroup(UserAccount owner, String name) {
+        final UserGroup userGroup = new UserGroup();
+        userGroup.setOwner(owner);
+        userGroup.setName(name);
+        userGroup.setCode(joinCodePool.take());
+        if (!joinCodeTtl.isZero()) {
+            userGroup.setCodeExpiresAt(LocalDateTime.now().plus(joinCodeTtl));
+        }
+        if (joinCodeMaxUses > 0) {
+            userGroup.setCodeMaxUses(joinCodeMaxUses);
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                userGroups.save(userGroup);
+                groupMemberships.save(new GroupMembership(userGroup, owner, GroupRole.OWNER));
+            });
+        } catch (DataIntegrityViolationException e) {
+            if (userGroups.existsByNormalizedName(userGroup.getNormalizedName())) {
+                groupNameIndex.add(name);
+                return Optional.empty();
+            }
+            throw e;
+        }
+        groupNameIndex.add(name);
+        joinCodeDirectory.register(userGroup.getCode(), userGroup.getId());
+        groupCounts.invalidate(GroupCountCache.Kind.OWNED, owner.getId());
+        groupCounts.invalidate(GroupCountCache.Kind.INVOLVING, owner.getId());
+        return Optional.of(userGroup);
+    }
+
+    /**
+     * Lets the supplied account join a group through its join code. The code's use limit is
+     * enforced with an atomic update in the same transaction as the membership insert,
+     * and only joins that add a membership use the code up.
+     *
+     * @param userGroup the group the code resolved to
+     * @param account   the account joining the group
+     * @return the group, or nothing if the code has been used up
+     */
+    public Optional<UserGroup> joinByCode(UserGroup userGroup, UserAccount account) {
+        if (checkMembership(account.getId(), userGroup)) {
+            return Optional.of(userGroup);
+        }
+        return join(userGroup, account, userGroup.getCodeMaxUses() != null);
+    }
+
+    /**
+     * Adds the supplied account to the members of the supplied group with a single conditional insert,
+     * and bumps the member count with an atomic update in the same transaction.
+     * Joining a group that the account already belongs to does nothing, also when both joins race.
+     *
+     * @param userGroup the group
+     * @param account   the account joining the group
+     * @return the group, with an up-to-date member count if the account joined
+     */
+    public UserGroup addMember(UserGroup userGroup, UserAccount account) {
+        return join(userGroup, account, false).orElse(userGroup);
+    }
+
+    /**
+     * Inserts a membership and, if a row was added, uses up a code use and bumps the member count,
+     * all in one transaction. If the code has been used up, the insert is rolled back.
+     *
+     * @param userGroup      the group
+     * @param account        the account joining the group
+     * @param consumeCodeUse whether the join uses up one use of the group's code
+     * @return the group, or nothing if the code has been used up
+     */
+    private Optional<UserGroup> join(UserGroup userGroup, UserAccount account, boolean consumeCodeUse) {
+        Long memberCount;
+        try {
+            memberCount = transactionTemplate.execute(status -> {
+                final int inserted = groupMemberships.insertIfAbsent(userGroup.getId(), account.getId(),
+                        GroupRole.MEMBER.name(), LocalDateTime.now());
+                if (inserted == 0) {
+                    return null;
+                }
+                if (consumeCodeUse && userGroups.consumeCodeUse(userGroup.getId()) == 0) {
+                    status.setRollbackOnly();
+                    return CODE_USED_UP;
+                }
+                userGroups.adjustMemberCount(userGroup.getId(), 1);
+                return userGroups.findMemberCountById(userGroup.getId());
+            });
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent join for the same account got there first
+            memberCount = null;
+        }
+        groupMembershipCache.invalidate(userGroup.getId(), account.getId());
+        if (memberCount == null) {
+            return Optional.of(userGroup);
+        }
+        if (memberCount == CODE_USED_UP) {
+            return Optional.empty();
+        }
+
+        groupCounts.invalidate(GroupCountCache.Kind.MEMBER_OF, account.getId());
+        groupCounts.invalidate(GroupCountCache.Kind.INVOLVING, account.getId());
+        groupCounts.invalidate(GroupCountCache.Kind.MEMBERS, userGroup.getId());
+        userGroup.setMemberCount(memberCount);
+        return Optional.of(userGroup);
     }
 
     /**
      * Checks if the supplied account is a member of the supplied group.
+     * The group's members are never loaded; membership is answered by {@link GroupMembershipCache}.
      *
-     * @param account the account
-     * @param group   the group
+     * @param accountId the account
+     * @param group     the group
      * @return true if a member, false if not.
      */
-    public boolean checkMembership(UserAccount account, UserGroup group) {
-        return Objects.equals(group.getOwner().getId(), account.getId()) || group.getMembers().contains(account);
+    public boolean checkMembership(long accountId, UserGroup group) {
+        return Objects.equals(group.getOwner().getId(), accountId)
+                || groupMembershipCache.isMember(group.getId(), accountId);
     }
 
     /**
@@ -142,16 +360,53 @@ public class UserGroupService {
     }
 
     /**
-     * Maps a {@link Page} to a corresponding {@link PageResponse} object
+     * Creates a {@link PageRequest} for one record more than the limit,
+     * so the presence of a next page can be detected without counting.
+     *
+     * @param limit max no. of records per page
+     * @return page request
+     */
+    private PageRequest limitPlusOne(int limit) {
+        return PageRequest.of(0, limit + 1);
+    }
+
+    /**
+     * Maps a list of at most limit + 1 groups to a {@link CursorPageResponse},
+     * pointing the next cursor at the last returned group if there is more.
+     *
+     * @param groups groups in listing order
+     * @param limit  max no. of records to return
+     * @param time   the timestamp the listing is ordered by
+     * @return a page response
+     */
+    private CursorPageResponse<SimpleUserGroupResponse> listToCursorPageResponse(List<GroupSummary> groups, int limit,
+                                                                                 Function<GroupSummary, LocalDateTime> time) {
+        final boolean hasMore = groups.size() > limit;
+        final List<GroupSummary> page = hasMore ? groups.subList(0, limit) : groups;
+        final List<SimpleUserGroupResponse> packed = page.stream()
+                .map(SimpleUserGroupResponse::new)
+                .collect(Collectors.toList());
+
+        String nextCursor = null;
+        if (hasMore) {
+            final GroupSummary last = page.get(page.size() - 1);
+            nextCursor = new PageCursor(time.apply(last), last.getId()).encode();
+        }
+        return new CursorPageResponse<>(packed, nextCursor);
+    }
+
+    /**
+     * Maps a {@link Slice} to a corresponding {@link PageResponse} object
      *
-     * @param userGroupPage a page of groups
+     * @param groupSlice a slice of groups
+     * @param maxRecords the total no. of records, or null if not requested
      * @return a page response
      */
-    private PageResponse<SimpleUserGroupResponse> pageToPageResponse(Page<UserGroup> userGroupPage) {
-        final List<SimpleUserGroupResponse> packed = userGroupPage.get()
+    private PageResponse<SimpleUserGroupResponse> sliceToPageResponse(Slice<GroupSummary> groupSlice, Long maxRecords) {
+        final List<SimpleUserGroupResponse> packed = groupSlice.get()
                 .map(SimpleUserGroupResponse::new)
                 .collect(Collectors.toList());
-        return new PageResponse<>(userGroupPage.getTotalElements(), packed);
+        return new PageResponse<>(maxRecords, groupSlice.hasNext(), packed);
     }
 
 }
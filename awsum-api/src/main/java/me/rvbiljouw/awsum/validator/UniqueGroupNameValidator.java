@@ -30,7 +30,8 @@ import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
 
 /**
- * Validator implementation that checks if a given group name is unique (available)
+ * Validator implementation that checks if a given group name is unique (available).
+ * This is a fast in-memory check; the database still has the final say when the group is created.
  *
  * @author rvbiljouw
  */
@@ -1,14 +1,27 @@
 package me.rvbiljouw.awsum.controller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.util.concurrent.Uninterruptibles;
 import me.rvbiljouw.awsum.ApiApplication;
+import me.rvbiljouw.awsum.auth.AuthTokenCache;
+import me.rvbiljouw.awsum.auth.AuthTokenSweeper;
+import me.rvbiljouw.awsum.auth.KnownTokenFilter;
+import me.rvbiljouw.awsum.auth.SignedToken;
+import me.rvbiljouw.awsum.auth.SignedTokenCodec;
 import me.rvbiljouw.awsum.model.AuthToken;
 import me.rvbiljouw.awsum.model.UserAccount;
 import me.rvbiljouw.awsum.repository.AuthTokenRepository;
 import me.rvbiljouw.awsum.repository.UserAccountRepository;
 import me.rvbiljouw.awsum.response.SimpleAuthTokenResponse;
 import me.rvbiljouw.awsum.response.SimpleUserAccountResponse;
+import me.rvbiljouw.awsum.service.AuthTokenService;
+import me.rvbiljouw.awsum.service.SpotifyClientRegistry;
+import me.rvbiljouw.awsum.service.SpotifyTokenRefresher;
+import me.rvbiljouw.awsum.service.UserAccountService;
 import me.rvbiljouw.awsum.spotify.SpotifyClient;
+import me.rvbiljouw.awsum.spotify.SpotifyExecutor.Priority;
+import me.rvbiljouw.awsum.spotify.exception.SpotifyException;
+import me.rvbiljouw.awsum.spotify.exception.SpotifyUnavailableException;
 import me.rvbiljouw.awsum.spotify.model.SpotifyToken;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -21,21 +34,43 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.util.AssertionErrors.assertEquals;
 import static org.springframework.test.util.AssertionErrors.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @ExtendWith(SpringExtension.class)
 @AutoConfigureMockMvc
-@SpringBootTest(classes = {ApiApplication.class})
+@SpringBootTest(classes = {ApiApplication.class}, properties = {
+        "auth.signedTokens.keys=test:dGVzdC1zaWduaW5nLWtleS10ZXN0LXNpZ25pbmcta2V5",
+        "auth.signedTokens.activeKeyId=test"
+})
 public class AuthControllerTest {
 
     @Autowired
@@ -51,6 +86,37 @@ public class AuthControllerTest {
     @Autowired
     private AuthTokenRepository authTokenRepository;
 
+    @Autowired
+    private AuthTokenCache authTokenCache;
+
+    @Autowired
+    private AuthTokenService authTokenService;
+
+    @Autowired
+    private UserAccountService userAccountService;
+
+    @Autowired
+    private SpotifyClientRegistry spotifyClientRegistry;
+
+    @Autowired
+    private SpotifyTokenRefresher spotifyTokenRefresher;
+
+    @Autowired
+    private SignedTokenCodec signedTokenCodec;
+
+    @Autowired
+    private AuthTokenSweeper authTokenSweeper;
+
+    @Autowired
+    private KnownTokenFilter knownTokenFilter;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    @Qualifier("loginExecutor")
+    private ThreadPoolTaskExecutor loginExecutor;
+
     @Autowired
     private MappingJackson2HttpMessageConverter messageConverter;
 
@@ -59,10 +125,10 @@ public class AuthControllerTest {
 
     @BeforeEach
     void setup() throws Exception {
-        when(spotifyClient.getTokenForAuthorizationCode(any())).thenReturn(makeSpotifyToken());
+        when(spotifyClient.getTokenForAuthorizationCodeAsync(any())).thenReturn(CompletableFuture.completedFuture(makeSpotifyToken()));
         when(spotifyClient.getAuthorizationURL()).thenReturn("https://accounts.spotify.com:443/authorize");
         when(spotifyClient.deriveUserScopedWithToken(any())).thenReturn(spotifyClient);
-        when(spotifyClient.getCurrentUserId()).thenReturn("user-id");
+        when(spotifyClient.getCurrentUserIdAsync()).thenReturn(CompletableFuture.completedFuture("user-id"));
 
         userAccount = new UserAccount();
         userAccount.setDisplayName("test-id");
@@ -75,12 +141,16 @@ public class AuthControllerTest {
         authToken.setAccount(userAccount);
         authToken.setToken("test-token");
         authTokenRepository.save(authToken);
+        // Saved behind the cache's back, like a token created on another node
+        knownTokenFilter.sync();
     }
 
     @AfterEach
     void tearDown() {
         authTokenRepository.deleteAll();
         userAccountRepository.deleteAll();
+        authTokenCache.invalidateAll();
+        spotifyClientRegistry.invalidateAll();
     }
 
     @Test
@@ -106,6 +176,173 @@ public class AuthControllerTest {
         assertTrue("Returned user account doesn't match", accountIsEqual);
     }
 
+    @Test
+    void getUserCachedAfterFirstRequest() throws Exception {
+        final long hitsBefore = authTokenCache.getStats().hitCount();
+        mvc.perform(get("/api/v1/user").header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk());
+        mvc.perform(get("/api/v1/user").header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk());
+        assertTrue("Second request didn't hit the token cache",
+                authTokenCache.getStats().hitCount() > hitsBefore);
+    }
+
+    @Test
+    void getUserWithUnknownTokenIsShielded() throws Exception {
+        mvc.perform(get("/api/v1/user").header("Authorization", "Bearer unknown-token"))
+                .andExpect(status().isForbidden());
+        assertTrue("Unknown token wasn't rejected by the filter",
+                !knownTokenFilter.mightExist(AuthToken.digest("unknown-token")));
+
+        // Deleted tokens stay in the filter until it's rebuilt, so they miss the database instead
+        final AuthToken deletedToken = new AuthToken();
+        deletedToken.setAccount(userAccount);
+        deletedToken.setToken("deleted-token");
+        authTokenRepository.save(deletedToken);
+        knownTokenFilter.sync();
+        authTokenRepository.delete(deletedToken);
+
+        final long rejectionsBefore = authTokenCache.getMissStats().hitCount();
+        mvc.perform(get("/api/v1/user").header("Authorization", "Bearer deleted-token"))
+                .andExpect(status().isForbidden());
+        mvc.perform(get("/api/v1/user").header("Authorization", "Bearer deleted-token"))
+                .andExpect(status().isForbidden());
+        assertTrue("Repeated missing token wasn't rejected from memory",
+                authTokenCache.getMissStats().hitCount() > rejectionsBefore);
+    }
+
+    @Test
+    void getUserWithTokenNotSyncedYet() throws Exception {
+        // Saved behind the cache's back, like a token created on another node since the last sync
+        final AuthToken unsynced = new AuthToken();
+        unsynced.setAccount(userAccount);
+        unsynced.setToken("unsynced-token");
+        authTokenRepository.save(unsynced);
+
+        mvc.perform(get("/api/v1/user").header("Authorization", "Bearer unsynced-token"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void getUserWithRevokedToken() throws Exception {
+        mvc.perform(get("/api/v1/user").header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk());
+        authTokenService.revokeAuthToken(authToken.getToken());
+        mvc.perform(get("/api/v1/user").header("Authorization", getAuthHeader()))
+                .andDo(print())
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void getUserWithSignedToken() throws Exception {
+        final SignedToken signedToken = signedTokenCodec.issue(userAccount);
+        final MvcResult result = mvc.perform(get("/api/v1/user")
+                .header("Authorization", "Bearer " + signedToken.getToken()))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andReturn();
+
+        final SimpleUserAccountResponse response = responseToObject(
+                result.getResponse().getContentAsString(),
+                SimpleUserAccountResponse.class);
+        assertEquals("Returned user account doesn't match", userAccount.getId(), response.getId());
+    }
+
+    @Test
+    void getUserWithSignedTokenIssuedBeforeRename() throws Exception {
+        final String token = signedTokenCodec.issue(userAccount).getToken();
+        userAccount.setDisplayName("renamed-id");
+        userAccountRepository.save(userAccount);
+
+        final MvcResult result = mvc.perform(get("/api/v1/user").header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andReturn();
+        final SimpleUserAccountResponse response = responseToObject(
+                result.getResponse().getContentAsString(),
+                SimpleUserAccountResponse.class);
+        assertEquals("Returned display name is stale", "renamed-id", response.getDisplayName());
+    }
+
+    @Test
+    void issueSignedTokenWithoutDisplayName() {
+        final UserAccount unnamed = new UserAccount(userAccount.getId());
+        assertTrue("Signed token couldn't be verified",
+                signedTokenCodec.verify(signedTokenCodec.issue(unnamed).getToken()).isPresent());
+    }
+
+    @Test
+    void getUserWithTamperedSignedToken() throws Exception {
+        final String token = signedTokenCodec.issue(userAccount).getToken();
+        final String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+        mvc.perform(get("/api/v1/user").header("Authorization", "Bearer " + tampered))
+                .andDo(print())
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void getUserWithRevokedSignedToken() throws Exception {
+        final String token = signedTokenCodec.issue(userAccount).getToken();
+        assertTrue("Signed token couldn't be revoked", authTokenService.revokeAuthToken(token));
+        mvc.perform(get("/api/v1/user").header("Authorization", "Bearer " + token))
+                .andDo(print())
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void legacyTokensAreHashedOnUpgrade() {
+        final JdbcTemplate legacy = LegacyDatabase.upgrade("legacy-tokens", jdbc -> {
+            jdbc.update("insert into user_account (id, created_at, display_name) values (1, current_timestamp, 'legacy')");
+            jdbc.update("insert into auth_token (id, created_at, token, account_id) values (2, current_timestamp, 'legacy-token', 1)");
+        });
+
+        final byte[] tokenHash = legacy.queryForObject("select token_hash from auth_token where id = 2", byte[].class);
+        assertTrue("Legacy token wasn't hashed on upgrade.", Arrays.equals(AuthToken.digest("legacy-token"), tokenHash));
+        final LocalDateTime expiresAt = legacy.queryForObject("select expires_at from auth_token where id = 2", LocalDateTime.class);
+        assertTrue("Legacy token didn't get an expiry on upgrade.", expiresAt != null && expiresAt.isAfter(LocalDateTime.now()));
+    }
+
+    @Test
+    void getUserWithExpiredToken() throws Exception {
+        final AuthToken expiredToken = new AuthToken();
+        expiredToken.setAccount(userAccount);
+        expiredToken.setToken("expired-token");
+        expiredToken.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+        authTokenRepository.save(expiredToken);
+        knownTokenFilter.sync();
+
+        mvc.perform(get("/api/v1/user").header("Authorization", "Bearer expired-token"))
+                .andDo(print())
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void getUserWithIdleToken() throws Exception {
+        final AuthToken idleToken = new AuthToken();
+        idleToken.setAccount(userAccount);
+        idleToken.setToken("idle-token");
+        idleToken.setLastUsedAt(LocalDateTime.now().minusYears(1));
+        authTokenRepository.save(idleToken);
+        knownTokenFilter.sync();
+
+        mvc.perform(get("/api/v1/user").header("Authorization", "Bearer idle-token"))
+                .andDo(print())
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void sweepDeletesExpiredTokens() {
+        final AuthToken expiredToken = new AuthToken();
+        expiredToken.setAccount(userAccount);
+        expiredToken.setToken("expired-token");
+        expiredToken.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+        authTokenRepository.save(expiredToken);
+
+        authTokenSweeper.sweep();
+
+        assertTrue("Expired token wasn't swept", !authTokenRepository.findById(expiredToken.getId()).isPresent());
+        assertTrue("Valid token was swept", authTokenRepository.findById(authToken.getId()).isPresent());
+    }
+
     @Test
     void getTokenUnauthorized() throws Exception {
         mvc.perform(get("/api/v1/token"))
@@ -125,6 +362,7 @@ public class AuthControllerTest {
                 SimpleAuthTokenResponse.class);
         boolean accountIsEqual = response.getId().equals(authToken.getId());
         assertTrue("Returned auth token doesn't match", accountIsEqual);
+        assertEquals("Returned token string doesn't match", authToken.getToken(), response.getToken());
     }
 
     @Test
@@ -142,8 +380,62 @@ public class AuthControllerTest {
                 result.getResponse().getContentAsString().contains("\"token\":"));
     }
 
+    @Test
+    void callbackFailsIfSpotifyFails() throws Exception {
+        final CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new SpotifyException("Spotify didn't respond within 15000ms."));
+        when(spotifyClient.getCurrentUserIdAsync()).thenReturn(failed);
+
+        final MvcResult started = mvc.perform(get("/api/v1/callback").param("code", "auth-code"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(started))
+                .andDo(print())
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    void callbackIsUnavailableIfSpotifyIs() throws Exception {
+        final CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new SpotifyUnavailableException("Spotify is unavailable."));
+        when(spotifyClient.getCurrentUserIdAsync()).thenReturn(failed);
+
+        final MvcResult started = mvc.perform(get("/api/v1/callback").param("code", "auth-code"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(started))
+                .andDo(print())
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void callbackIsUnavailableIfLoginsQueueUp() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            while (true) {
+                try {
+                    loginExecutor.execute(() -> Uninterruptibles.awaitUninterruptibly(release));
+                } catch (TaskRejectedException e) {
+                    break;
+                }
+            }
+
+            final MvcResult started = mvc.perform(get("/api/v1/callback").param("code", "auth-code"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mvc.perform(asyncDispatch(started))
+                    .andDo(print())
+                    .andExpect(status().isServiceUnavailable());
+        } finally {
+            release.countDown();
+        }
+    }
+
     private MvcResult callCallback() throws Exception {
-        return mvc.perform(get("/api/v1/callback").param("code", "auth-code"))
+        final MvcResult started = mvc.perform(get("/api/v1/callback").param("code", "auth-code"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mvc.perform(asyncDispatch(started))
                 .andDo(print())
                 .andExpect(status().is2xxSuccessful())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
@@ -164,6 +456,147 @@ public class AuthControllerTest {
                 tokenOne.getAccount().getId());
     }
 
+    @Test
+    void callbackSkipsWriteIfTokensUnchanged() throws Exception {
+        callCallback();
+        final LocalDateTime updatedAt = userAccountRepository.findBySpotifyId("user-id").get().getUpdatedAt();
+
+        callCallback();
+        assertEquals("Account was written to without changes.",
+                updatedAt, userAccountRepository.findBySpotifyId("user-id").get().getUpdatedAt());
+    }
+
+    @Test
+    void callbackUpdatesChangedTokens() throws Exception {
+        callCallback();
+        userAccountRepository.findBySpotifyId("user-id");
+
+        when(spotifyClient.getTokenForAuthorizationCodeAsync(any())).thenReturn(
+                CompletableFuture.completedFuture(new SpotifyToken("new-access-token", "new-refresh-token")));
+        callCallback();
+
+        final UserAccount updated = userAccountRepository.findBySpotifyId("user-id").get();
+        assertEquals("Access token was not updated.", "new-access-token", updated.getSpotifyAccessToken());
+        assertEquals("Refresh token was not updated.", "new-refresh-token", updated.getSpotifyRefreshToken());
+    }
+
+    @Test
+    void concurrentLoginsCreateOneAccount() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<UserAccount>> logins = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                logins.add(executor.submit(() -> userAccountService.createOrUpdateAccountWith(makeSpotifyToken(), "racing-id")));
+            }
+            for (Future<UserAccount> login : logins) {
+                login.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("Concurrent logins created duplicate accounts.", 2L, userAccountRepository.count());
+    }
+
+    @Test
+    void callbackUpdatesRegisteredClientInPlace() throws Exception {
+        final SpotifyClient client = spotifyClientRegistry.get(userAccount);
+        final SpotifyToken token = new SpotifyToken("refreshed-access-token", "refreshed-refresh-token");
+        userAccountService.createOrUpdateAccountWith(token, userAccount.getSpotifyId());
+
+        assertTrue("The account's client was replaced.", client == spotifyClientRegistry.get(userAccount));
+        verify(client).updateToken(token);
+    }
+
+    @Test
+    void concurrentRefreshesShareOne() {
+        final CompletableFuture<SpotifyToken> pending = new CompletableFuture<>();
+        when(spotifyClient.refreshTokenAsync(any())).thenReturn(pending);
+
+        final CompletableFuture<SpotifyClient> first = spotifyTokenRefresher.refresh(userAccount, Priority.INTERACTIVE);
+        final CompletableFuture<SpotifyClient> second = spotifyTokenRefresher.refresh(userAccount, Priority.INTERACTIVE);
+        assertTrue("Concurrent refreshes weren't deduplicated.", first == second);
+        verify(spotifyClient, times(1)).refreshTokenAsync(any());
+
+        final LocalDateTime expiresAt = LocalDateTime.now().plusHours(1).withNano(0);
+        pending.complete(new SpotifyToken("refreshed-access-token", "test-refresh-token", expiresAt));
+        first.join();
+
+        final UserAccount refreshed = userAccountRepository.findById(userAccount.getId()).get();
+        assertEquals("Refreshed token wasn't stored.", "refreshed-access-token", refreshed.getSpotifyAccessToken());
+        assertEquals("Token expiry wasn't stored.", expiresAt, refreshed.getSpotifyTokenExpiresAt());
+    }
+
+    @Test
+    void refreshExpiringOnlyRefreshesExpiringTokens() {
+        final LocalDateTime expiresAt = LocalDateTime.now().plusHours(1).withNano(0);
+        when(spotifyClient.refreshTokenAsync(any())).thenReturn(CompletableFuture.completedFuture(
+                new SpotifyToken("refreshed-access-token", "test-refresh-token", expiresAt)));
+
+        userAccount.setSpotifyTokenExpiresAt(LocalDateTime.now().plusMinutes(1));
+        userAccountRepository.save(userAccount);
+
+        final UserAccount fresh = new UserAccount();
+        fresh.setDisplayName("fresh-id");
+        fresh.setSpotifyId("fresh-id");
+        fresh.setSpotifyAccessToken("fresh-access-token");
+        fresh.setSpotifyRefreshToken("fresh-refresh-token");
+        fresh.setSpotifyTokenExpiresAt(LocalDateTime.now().plusMinutes(30));
+        userAccountRepository.save(fresh);
+
+        assertEquals("Wrong no. of tokens refreshed.", Long.valueOf(1), spotifyTokenRefresher.refreshExpiring().join());
+        assertEquals("Expiring token wasn't refreshed.", expiresAt,
+                userAccountRepository.findById(userAccount.getId()).get().getSpotifyTokenExpiresAt());
+        assertEquals("Fresh token was refreshed.", "fresh-access-token",
+                userAccountRepository.findById(fresh.getId()).get().getSpotifyAccessToken());
+    }
+
+    @Test
+    void refreshExpiringSkipsTokensLeasedByAnotherNode() {
+        final LocalDateTime expiresAt = LocalDateTime.now().plusMinutes(1).withNano(0);
+        userAccount.setSpotifyTokenExpiresAt(expiresAt);
+        userAccountRepository.save(userAccount);
+
+        assertEquals("Lease wasn't taken.", 1,
+                userAccountRepository.swapTokenExpiry(userAccount.getId(), expiresAt, expiresAt.plusMinutes(10)));
+        assertEquals("Leased token was refreshed.", Long.valueOf(0), spotifyTokenRefresher.refreshExpiring().join());
+        verify(spotifyClient, never()).refreshTokenAsync(any());
+    }
+
+    @Test
+    void leasingATokenKeepsOtherAccountsCached() {
+        final LocalDateTime expiresAt = LocalDateTime.now().plusMinutes(1).withNano(0);
+        userAccount.setSpotifyTokenExpiresAt(expiresAt);
+        userAccountRepository.save(userAccount);
+        final UserAccount other = new UserAccount();
+        other.setDisplayName("other-id");
+        other.setSpotifyId("other-id");
+        userAccountRepository.save(other);
+        userAccountRepository.findById(other.getId());
+        userAccountRepository.findById(userAccount.getId());
+
+        assertEquals("Lease wasn't taken.", 1,
+                userAccountRepository.swapTokenExpiry(userAccount.getId(), expiresAt, expiresAt.plusMinutes(10)));
+        assertTrue("Leasing evicted other accounts.", entityManagerFactory.getCache().contains(UserAccount.class, other.getId()));
+        assertEquals("The cached expiry is stale.", expiresAt.plusMinutes(10),
+                userAccountRepository.findById(userAccount.getId()).get().getSpotifyTokenExpiresAt());
+    }
+
+    @Test
+    void refreshExpiringHandsBackTheLeaseOnFailure() {
+        final CompletableFuture<SpotifyToken> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new SpotifyUnavailableException("Spotify is unavailable."));
+        when(spotifyClient.refreshTokenAsync(any())).thenReturn(failed);
+
+        final LocalDateTime expiresAt = LocalDateTime.now().plusMinutes(1).withNano(0);
+        userAccount.setSpotifyTokenExpiresAt(expiresAt);
+        userAccountRepository.save(userAccount);
+
+        assertEquals("Failed refresh was counted.", Long.valueOf(0), spotifyTokenRefresher.refreshExpiring().join());
+        assertEquals("Lease wasn't handed back.", expiresAt,
+                userAccountRepository.findById(userAccount.getId()).get().getSpotifyTokenExpiresAt());
+    }
+
     private <T> T responseToObject(String responseString, Class<T> type) throws JsonProcessingException {
         return messageConverter.getObjectMapper().readValue(responseString, type);
     }
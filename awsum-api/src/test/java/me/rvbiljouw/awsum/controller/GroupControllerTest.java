@@ -1,35 +1,65 @@
 package me.rvbiljouw.awsum.controller;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.util.concurrent.Uninterruptibles;
 import me.rvbiljouw.awsum.ApiApplication;
+import me.rvbiljouw.awsum.auth.AuthTokenCache;
+import me.rvbiljouw.awsum.auth.KnownTokenFilter;
+import me.rvbiljouw.awsum.auth.RecentWriterFilter;
+import me.rvbiljouw.awsum.datasource.DataSourceRoute;
+import me.rvbiljouw.awsum.datasource.ReadWriteRoutingDataSource;
 import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.model.GroupMembership;
+import me.rvbiljouw.awsum.model.GroupRole;
 import me.rvbiljouw.awsum.model.UserAccount;
 import me.rvbiljouw.awsum.model.UserGroup;
 import me.rvbiljouw.awsum.repository.AuthTokenRepository;
+import me.rvbiljouw.awsum.repository.GroupMembershipRepository;
 import me.rvbiljouw.awsum.repository.UserAccountRepository;
 import me.rvbiljouw.awsum.repository.UserGroupRepository;
 import me.rvbiljouw.awsum.request.CreateGroupRequest;
+import me.rvbiljouw.awsum.response.CursorPageResponse;
+import me.rvbiljouw.awsum.response.GroupNameAvailabilityResponse;
 import me.rvbiljouw.awsum.response.PageResponse;
 import me.rvbiljouw.awsum.response.SimpleUserAccountResponse;
 import me.rvbiljouw.awsum.response.SimpleUserGroupResponse;
+import me.rvbiljouw.awsum.service.GroupCountCache;
+import me.rvbiljouw.awsum.service.GroupMembershipCache;
+import me.rvbiljouw.awsum.service.UserGroupService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import static java.util.Collections.singletonList;
 import static org.springframework.test.util.AssertionErrors.assertEquals;
 import static org.springframework.test.util.AssertionErrors.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -42,7 +72,15 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  */
 @ExtendWith(SpringExtension.class)
 @AutoConfigureMockMvc
-@SpringBootTest(classes = {ApiApplication.class})
+@SpringBootTest(classes = {ApiApplication.class}, properties = {
+        // A second pool on the same embedded database stands in for a replica
+        "spring.datasource.url=jdbc:h2:mem:groups;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "data.datasource.replica.url=jdbc:h2:mem:groups;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "spring.jpa.properties.hibernate.session.events.auto=me.rvbiljouw.awsum.controller.JdbcBatchCounter",
+        "groups.membershipCache.negativeExpireAfterWrite=100ms",
+        "data.cache.statistics=true",
+        "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=warn"
+})
 class GroupControllerTest {
 
     @Autowired
@@ -54,9 +92,30 @@ class GroupControllerTest {
     private AuthTokenRepository authTokenRepository;
     @Autowired
     private UserGroupRepository userGroupRepository;
+    @Autowired
+    private GroupMembershipRepository groupMembershipRepository;
+    @Autowired
+    private AuthTokenCache authTokenCache;
+    @Autowired
+    private UserGroupService userGroupService;
+    @Autowired
+    private KnownTokenFilter knownTokenFilter;
+    @Autowired
+    private GroupCountCache groupCountCache;
+    @Autowired
+    private GroupMembershipCache groupMembershipCache;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private RecentWriterFilter recentWriterFilter;
 
     @Autowired
     private MappingJackson2HttpMessageConverter messageConverter;
+    @Value("${data.jdbc.batchSize:50}")
+    private int batchSize;
 
     private UserAccount otherAccount;
     private UserAccount ourAccount;
@@ -85,24 +144,26 @@ class GroupControllerTest {
         ourAuthToken.setAccount(ourAccount);
         ourAuthToken.setToken("test-token");
         authTokenRepository.save(ourAuthToken);
+        knownTokenFilter.sync();
 
-        ownerGroup = new UserGroup();
-        ownerGroup.setOwner(ourAccount);
-        ownerGroup.setName("our-group");
-        userGroupRepository.save(ownerGroup);
+        ownerGroup = userGroupService.createGroup(ourAccount, "our-group").get();
 
-        memberGroup = new UserGroup();
-        memberGroup.setOwner(otherAccount);
-        memberGroup.setName("other-group");
-        memberGroup.setMembers(singletonList(ourAccount));
-        userGroupRepository.save(memberGroup);
+        final UserGroup otherGroup = userGroupService.createGroup(otherAccount, "other-group").get();
+        groupMembershipRepository.save(new GroupMembership(otherGroup, ourAccount, GroupRole.MEMBER));
+        userGroupRepository.adjustMemberCount(otherGroup.getId(), 1);
+        memberGroup = userGroupRepository.findById(otherGroup.getId()).get();
     }
 
     @AfterEach
     void tearDown() {
+        groupMembershipRepository.deleteAll();
         userGroupRepository.deleteAll();
         authTokenRepository.deleteAll();
         userAccountRepository.deleteAll();
+        authTokenCache.invalidateAll();
+        groupCountCache.invalidateAll();
+        groupMembershipCache.invalidateAll();
+        recentWriterFilter.invalidateAll();
     }
 
     @Test
@@ -157,6 +218,94 @@ class GroupControllerTest {
         });
     }
 
+    @Test
+    void namesDifferingInCaseAreSuffixedOnUpgrade() {
+        final JdbcTemplate legacy = LegacyDatabase.upgrade("legacy-names", jdbc -> {
+            jdbc.update("insert into user_account (id, created_at, display_name) values (1, current_timestamp, 'legacy-1')");
+            jdbc.update("insert into user_group (id, created_at, name, owner_id) values " +
+                    "(10, current_timestamp, 'Rock', 1), (11, current_timestamp, 'rock ', 1), (12, current_timestamp, 'Jazz', 1)");
+        });
+
+        final List<String> names = legacy.queryForList("select normalized_name from user_group order by id", String.class);
+        assertEquals("Normalized names don't match expected.", Arrays.asList("rock", "rock (11)", "jazz"), names);
+    }
+
+    @Test
+    void sequencesContinueAboveExistingIdsOnUpgrade() {
+        final JdbcTemplate legacy = LegacyDatabase.upgrade("legacy-sequences", jdbc -> {
+            jdbc.update("insert into user_account (id, created_at, display_name) values (7, current_timestamp, 'legacy-7')");
+            jdbc.update("insert into user_group (id, created_at, name, owner_id) values (120, current_timestamp, 'legacy', 7)");
+        });
+
+        assertEquals("Account ids don't continue above the existing ones.", Long.valueOf(8),
+                legacy.queryForObject("select next value for user_account_seq", Long.class));
+        assertEquals("Group ids don't continue above the existing ones.", Long.valueOf(121),
+                legacy.queryForObject("select next value for user_group_seq", Long.class));
+    }
+
+    @Test
+    void ownersGetMembershipOnUpgrade() {
+        final JdbcTemplate legacy = LegacyDatabase.upgrade("legacy-owners", jdbc -> {
+            jdbc.update("insert into user_account (id, created_at, display_name) values (1, current_timestamp, 'legacy-1')");
+            jdbc.update("insert into user_group (id, created_at, name, owner_id) values (10, current_timestamp, 'legacy', 1)");
+            jdbc.update("insert into user_group_members (user_group_id, members_id) values (10, 1)");
+        });
+
+        final List<String> roles = legacy.queryForList("select role from group_membership " +
+                "where group_id = 10 and account_id = 1", String.class);
+        assertEquals("Owner didn't get a membership on upgrade.", Arrays.asList("OWNER"), roles);
+    }
+
+    @Test
+    void membersAreKeptOnUpgrade() {
+        final JdbcTemplate legacy = LegacyDatabase.upgrade("legacy-members", jdbc -> {
+            for (long id = 1; id <= 3; id++) {
+                jdbc.update("insert into user_account (id, created_at, display_name) values (?, current_timestamp, ?)",
+                        id, "legacy-" + id);
+            }
+            jdbc.update("insert into user_group (id, created_at, name, owner_id) values (10, current_timestamp, 'legacy', 1)");
+            jdbc.update("insert into user_group_members (user_group_id, members_id) values (10, 1), (10, 2), (10, 2), (10, 3)");
+        });
+
+        final List<Long> members = legacy.queryForList("select account_id from group_membership " +
+                "where group_id = 10 and role = 'MEMBER' order by account_id", Long.class);
+        assertEquals("Members weren't kept on upgrade.", Arrays.asList(2L, 3L), members);
+        assertEquals("Member count wasn't backfilled on upgrade.", Long.valueOf(2),
+                legacy.queryForObject("select member_count from user_group where id = 10", Long.class));
+    }
+
+    @Test
+    void duplicateAccountsAreMergedOnUpgrade() {
+        final JdbcTemplate legacy = LegacyDatabase.upgrade("legacy-duplicates", jdbc -> {
+            jdbc.update("insert into user_account (id, created_at, updated_at, display_name, spotify_id, " +
+                    "spotify_access_token, spotify_refresh_token) values " +
+                    "(1, timestamp '2020-01-01 00:00:00', timestamp '2020-01-01 00:00:00', 'dup', 'dup', 'old-access', 'old-refresh'), " +
+                    "(2, timestamp '2020-01-01 00:00:01', timestamp '2020-02-01 00:00:00', 'dup', 'dup', 'new-access', 'new-refresh'), " +
+                    "(3, timestamp '2020-01-01 00:00:02', timestamp '2020-01-01 00:00:02', 'dup', 'dup', 'older-access', 'older-refresh'), " +
+                    "(4, timestamp '2020-01-01 00:00:00', null, 'other', 'other', null, null)");
+            jdbc.update("insert into auth_token (id, created_at, token, account_id) values (100, current_timestamp, 'dup-token', 2)");
+            jdbc.update("insert into user_group (id, created_at, name, owner_id) values " +
+                    "(10, current_timestamp, 'owned-by-duplicate', 2), " +
+                    "(11, current_timestamp, 'joined-by-duplicates', 4), " +
+                    "(12, current_timestamp, 'owned-by-duplicate-joined-by-kept', 3)");
+            jdbc.update("insert into user_group_members (user_group_id, members_id) values (11, 1), (11, 3), (12, 1)");
+        });
+
+        assertEquals("Duplicate accounts weren't deleted.", Arrays.asList(1L, 4L),
+                legacy.queryForList("select id from user_account order by id", Long.class));
+        assertEquals("The newest Spotify tokens weren't kept.", "new-refresh",
+                legacy.queryForObject("select spotify_refresh_token from user_account where id = 1", String.class));
+        assertEquals("Auth tokens weren't moved.", Long.valueOf(1),
+                legacy.queryForObject("select account_id from auth_token where id = 100", Long.class));
+        assertEquals("Owned groups weren't moved.", Arrays.asList(1L, 4L, 1L),
+                legacy.queryForList("select owner_id from user_group order by id", Long.class));
+        assertEquals("Memberships weren't merged.", Arrays.asList("10:1:OWNER", "11:1:MEMBER", "11:4:OWNER", "12:1:OWNER"),
+                legacy.queryForList("select group_id || ':' || account_id || ':' || role from group_membership " +
+                        "order by group_id, account_id", String.class));
+        assertEquals("Member counts weren't updated.", Arrays.asList(0L, 1L, 0L),
+                legacy.queryForList("select member_count from user_group order by id", Long.class));
+    }
+
     @Test
     void getMemberGroups() throws Exception {
         final MvcResult result = mvc.perform(get("/api/v1/groups")
@@ -175,6 +324,111 @@ class GroupControllerTest {
         assertEquals("The ID of the group doesn't match expected.", group.getId(), memberGroup.getId());
     }
 
+    @Test
+    void getGroupsWithoutCount() throws Exception {
+        final MvcResult result = mvc.perform(get("/api/v1/groups")
+                .param("type", "ALL")
+                .param("limit", "1")
+                .param("count", "false")
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk())
+                .andReturn();
+        final String json = result.getResponse().getContentAsString();
+
+        final PageResponse<SimpleUserGroupResponse> groups = messageConverter.getObjectMapper().readValue(json, createGroupPageTypeRef());
+        assertTrue("Max records should be absent.", groups.getMaxRecords() == null);
+        assertTrue("Items.size() doesn't match expected.", groups.getItems().size() == 1);
+        assertTrue("There should be a next page.", groups.isHasNext());
+    }
+
+    @Test
+    void getOwnerGroupsCountAfterCreate() throws Exception {
+        assertEquals("Max records doesn't match expected.", 1L, getOwnerGroupsPage().getMaxRecords());
+
+        final CreateGroupRequest request = new CreateGroupRequest();
+        request.setName("counted-group");
+        makeCreateNewGroupRequest(request).andExpect(status().isOk());
+
+        assertEquals("Max records wasn't refreshed after creating a group.", 2L, getOwnerGroupsPage().getMaxRecords());
+    }
+
+    @Test
+    void getOwnerGroupsByCursor() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            final UserGroup group = new UserGroup();
+            group.setOwner(ourAccount);
+            group.setName("our-group-" + i);
+            userGroupRepository.save(group);
+        }
+
+        final Set<Long> seen = new HashSet<>();
+        final int pages = pageGroupsByCursor("OWNER", seen);
+        assertEquals("Number of groups seen doesn't match expected.", 5, seen.size());
+        assertEquals("Number of pages doesn't match expected.", 3, pages);
+    }
+
+    @Test
+    void getAllGroupsByCursor() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            final UserGroup group = userGroupService.createGroup(otherAccount, "joined-group-" + i).get();
+            groupMembershipRepository.save(new GroupMembership(group, ourAccount, GroupRole.MEMBER));
+        }
+
+        final Set<Long> seen = new HashSet<>();
+        final int pages = pageGroupsByCursor("ALL", seen);
+        assertEquals("Number of groups seen doesn't match expected.", 6, seen.size());
+        assertEquals("Number of pages doesn't match expected.", 3, pages);
+    }
+
+    private int pageGroupsByCursor(String type, Set<Long> seen) throws Exception {
+        String cursor = "";
+        int pages = 0;
+        do {
+            final MvcResult result = mvc.perform(get("/api/v1/groups")
+                    .param("type", type)
+                    .param("cursor", cursor)
+                    .param("limit", "2")
+                    .header("Authorization", getAuthHeader()))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            final String json = result.getResponse().getContentAsString();
+
+            final CursorPageResponse<SimpleUserGroupResponse> groups = messageConverter.getObjectMapper().readValue(
+                    json, createGroupCursorPageTypeRef());
+            assertTrue("Items.size() exceeds the limit.", groups.getItems().size() <= 2);
+            groups.getItems().forEach(group -> assertTrue("Group was returned twice.", seen.add(group.getId())));
+            cursor = groups.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        return pages;
+    }
+
+    @Test
+    void getGroupsWithOutOfRangeLimit() throws Exception {
+        for (String limit : Arrays.asList("0", "101", String.valueOf(Integer.MAX_VALUE))) {
+            mvc.perform(get("/api/v1/groups")
+                    .param("type", "ALL")
+                    .param("limit", limit)
+                    .header("Authorization", getAuthHeader()))
+                    .andExpect(status().isBadRequest());
+            mvc.perform(get("/api/v1/groups")
+                    .param("type", "ALL")
+                    .param("cursor", "")
+                    .param("limit", limit)
+                    .header("Authorization", getAuthHeader()))
+                    .andExpect(status().isBadRequest());
+        }
+    }
+
+    @Test
+    void getGroupsByInvalidCursor() throws Exception {
+        mvc.perform(get("/api/v1/groups")
+                .param("type", "ALL")
+                .param("cursor", "not-a-cursor")
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void createNewGroup() throws Exception {
         final CreateGroupRequest request = new CreateGroupRequest();
@@ -188,6 +442,108 @@ class GroupControllerTest {
         final SimpleUserGroupResponse createdGroup = messageConverter.getObjectMapper().readValue(
                 responseJson, SimpleUserGroupResponse.class);
         assertEquals("Created group doesn't match expected.", request.getName(), createdGroup.getName());
+        assertTrue("Created group has no join code.", createdGroup.getCode() != null);
+    }
+
+    @Test
+    void joinCreatedGroupByCode() throws Exception {
+        final UserGroup createdGroup = userGroupService.createGroup(otherAccount, "shared-group").get();
+
+        final MvcResult result = mvc.perform(get("/api/v1/groups/join")
+                .param("code", createdGroup.getCode())
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk())
+                .andReturn();
+        final SimpleUserGroupResponse group = messageConverter.getObjectMapper().readValue(
+                result.getResponse().getContentAsString(), SimpleUserGroupResponse.class);
+        assertEquals("The joined group has a different id than expected", createdGroup.getId(), group.getId());
+        assertEquals("The member count doesn't match expected.", 1L, group.getMemberCount());
+    }
+
+    @Test
+    void joiningAGroupKeepsOtherGroupsCached() throws Exception {
+        final UserGroup createdGroup = userGroupService.createGroup(otherAccount, "cached-group").get();
+        userGroupRepository.findById(ownerGroup.getId());
+        userGroupRepository.findById(createdGroup.getId());
+        assertTrue("The group wasn't cached.", entityManagerFactory.getCache().contains(UserGroup.class, ownerGroup.getId()));
+
+        mvc.perform(get("/api/v1/groups/join")
+                .param("code", createdGroup.getCode())
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk());
+
+        assertTrue("Joining evicted other groups.", entityManagerFactory.getCache().contains(UserGroup.class, ownerGroup.getId()));
+        assertEquals("The cached member count is stale.", 1L,
+                userGroupRepository.findById(createdGroup.getId()).get().getMemberCount());
+    }
+
+    @Test
+    void joiningByLimitedCodeKeepsOtherGroupsCached() throws Exception {
+        final UserGroup joinGroup = new UserGroup();
+        joinGroup.setOwner(otherAccount);
+        joinGroup.setName("limited-code-group");
+        joinGroup.setCode(UUID.randomUUID().toString());
+        joinGroup.setCodeMaxUses(5L);
+        userGroupRepository.save(joinGroup);
+        userGroupRepository.findById(ownerGroup.getId());
+        userGroupRepository.findById(joinGroup.getId());
+
+        mvc.perform(get("/api/v1/groups/join")
+                .param("code", joinGroup.getCode())
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk());
+
+        assertTrue("Joining evicted other groups.", entityManagerFactory.getCache().contains(UserGroup.class, ownerGroup.getId()));
+        assertEquals("The cached code uses are stale.", 1L,
+                userGroupRepository.findById(joinGroup.getId()).get().getCodeUses());
+    }
+
+    @Test
+    void racingJoinDoesntSpendACodeUse() {
+        final UserGroup joinGroup = new UserGroup();
+        joinGroup.setOwner(otherAccount);
+        joinGroup.setName("racing-join-group");
+        joinGroup.setCode(UUID.randomUUID().toString());
+        joinGroup.setCodeMaxUses(1L);
+        userGroupRepository.save(joinGroup);
+        // The membership check has cached that we're not a member when the other join lands
+        assertTrue("Already a member.", !groupMembershipCache.isMember(joinGroup.getId(), ourAccount.getId()));
+        groupMembershipRepository.save(new GroupMembership(joinGroup, ourAccount, GroupRole.MEMBER));
+
+        assertTrue("The join was refused.", userGroupService.joinByCode(joinGroup, ourAccount).isPresent());
+        assertEquals("A code use was spent without adding a member.", 0L,
+                userGroupRepository.findById(joinGroup.getId()).get().getCodeUses());
+    }
+
+    @Test
+    void joinGroupWithExpiredCode() throws Exception {
+        final UserGroup joinGroup = new UserGroup();
+        joinGroup.setOwner(otherAccount);
+        joinGroup.setName("expired-code-group");
+        joinGroup.setCode(UUID.randomUUID().toString());
+        joinGroup.setCodeExpiresAt(LocalDateTime.now().minusMinutes(1));
+        userGroupRepository.save(joinGroup);
+
+        mvc.perform(get("/api/v1/groups/join")
+                .param("code", joinGroup.getCode())
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isGone());
+    }
+
+    @Test
+    void joinGroupWithUsedUpCode() throws Exception {
+        final UserGroup joinGroup = new UserGroup();
+        joinGroup.setOwner(otherAccount);
+        joinGroup.setName("used-up-code-group");
+        joinGroup.setCode(UUID.randomUUID().toString());
+        joinGroup.setCodeMaxUses(1L);
+        joinGroup.setCodeUses(1);
+        userGroupRepository.save(joinGroup);
+
+        mvc.perform(get("/api/v1/groups/join")
+                .param("code", joinGroup.getCode())
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isGone());
     }
 
     @Test
@@ -240,6 +596,39 @@ class GroupControllerTest {
         makeCreateNewGroupRequest(request).andExpect(status().isBadRequest());
     }
 
+    @Test
+    void createGroupNameDuplicateIgnoringCase() throws Exception {
+        final CreateGroupRequest request = new CreateGroupRequest();
+        request.setName("Case-Group");
+        makeCreateNewGroupRequest(request).andExpect(status().isOk());
+
+        request.setName(" case-GROUP ");
+        makeCreateNewGroupRequest(request).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void createGroupNameTakenOnAnotherNode() throws Exception {
+        // Saved behind the name index's back, like a group created on another node
+        final UserGroup otherGroup = new UserGroup();
+        otherGroup.setOwner(otherAccount);
+        otherGroup.setName("unseen-group");
+        userGroupRepository.save(otherGroup);
+
+        final CreateGroupRequest request = new CreateGroupRequest();
+        request.setName("Unseen-Group");
+        makeCreateNewGroupRequest(request).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void checkGroupNameAvailability() throws Exception {
+        final CreateGroupRequest request = new CreateGroupRequest();
+        request.setName("typeahead-group");
+        makeCreateNewGroupRequest(request).andExpect(status().isOk());
+
+        assertTrue("A taken name was reported as available.", !getNameAvailability("TypeAhead-Group").isAvailable());
+        assertTrue("A free name was reported as taken.", getNameAvailability("typeahead-group-2").isAvailable());
+    }
+
     @Test
     void joinGroupWithoutCode() throws Exception {
         mvc.perform(get("/api/v1/groups/join")
@@ -289,7 +678,7 @@ class GroupControllerTest {
                 responseJson, createUserAccountPageTypeRef());
 
         assertTrue("The number of members returned doesn't match expected.",
-                memberGroup.getMembers().size() == members.getMaxRecords());
+                members.getMaxRecords() == 1);
     }
 
     @Test
@@ -316,6 +705,208 @@ class GroupControllerTest {
                 .andReturn();
     }
 
+    @Test
+    void getMembersAfterJoin() throws Exception {
+        final UserGroup joinGroup = new UserGroup();
+        joinGroup.setOwner(otherAccount);
+        joinGroup.setName("join-later-group");
+        joinGroup.setCode(UUID.randomUUID().toString());
+        userGroupRepository.save(joinGroup);
+
+        mvc.perform(get("/api/v1/groups/" + joinGroup.getId() + "/members")
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isForbidden());
+
+        mvc.perform(get("/api/v1/groups/join")
+                .param("code", joinGroup.getCode())
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk());
+
+        mvc.perform(get("/api/v1/groups/" + joinGroup.getId() + "/members")
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void nonMembersAreOnlyCachedBriefly() {
+        assertTrue("Other account is a member.", !groupMembershipCache.isMember(ownerGroup.getId(), otherAccount.getId()));
+
+        // Joined on another node, so this node's cache isn't invalidated
+        groupMembershipRepository.save(new GroupMembership(ownerGroup, otherAccount, GroupRole.MEMBER));
+        Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+
+        assertTrue("Cached non-membership outlived its TTL.",
+                groupMembershipCache.isMember(ownerGroup.getId(), otherAccount.getId()));
+    }
+
+    @Test
+    void joinGroupTwice() throws Exception {
+        final UserGroup joinGroup = new UserGroup();
+        joinGroup.setOwner(otherAccount);
+        joinGroup.setName("join-twice-group");
+        joinGroup.setCode(UUID.randomUUID().toString());
+        userGroupRepository.save(joinGroup);
+
+        for (int i = 0; i < 2; i++) {
+            mvc.perform(get("/api/v1/groups/join")
+                    .param("code", joinGroup.getCode())
+                    .header("Authorization", getAuthHeader()))
+                    .andExpect(status().isOk());
+        }
+
+        assertEquals("The number of memberships doesn't match expected.",
+                1L, countMembers(joinGroup.getId()));
+    }
+
+    @Test
+    void summaryListingsDontLoadGroups() throws Exception {
+        final EntityStatistics groupStatistics = entityManagerFactory.unwrap(SessionFactory.class)
+                .getStatistics().getEntityStatistics(UserGroup.class.getName());
+        final long loadsBefore = groupStatistics.getLoadCount();
+        final long fetchesBefore = groupStatistics.getFetchCount();
+
+        final MvcResult paged = mvc.perform(get("/api/v1/groups")
+                .param("type", "ALL")
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk())
+                .andReturn();
+        final List<SimpleUserGroupResponse> groups = new ArrayList<>(messageConverter.getObjectMapper().readValue(
+                paged.getResponse().getContentAsString(), createGroupPageTypeRef()).getItems());
+        final MvcResult byCursor = mvc.perform(get("/api/v1/groups")
+                .param("type", "ALL")
+                .param("cursor", "")
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk())
+                .andReturn();
+        groups.addAll(messageConverter.getObjectMapper().readValue(
+                byCursor.getResponse().getContentAsString(), createGroupCursorPageTypeRef()).getItems());
+
+        assertEquals("UserGroup entities were loaded.", loadsBefore, groupStatistics.getLoadCount());
+        assertEquals("UserGroup entities were fetched.", fetchesBefore, groupStatistics.getFetchCount());
+        assertEquals("Number of groups doesn't match expected.", 4, groups.size());
+        for (SimpleUserGroupResponse group : groups) {
+            final UserGroup entity = group.getId().equals(ownerGroup.getId()) ? ownerGroup : memberGroup;
+            assertEquals("Name wasn't projected.", entity.getName(), group.getName());
+            assertEquals("Member count wasn't projected.", entity.getMemberCount(), group.getMemberCount());
+            assertEquals("Owner wasn't projected.", entity.getOwner().getId(), group.getOwner().getId());
+            assertEquals("Owner name wasn't projected.", entity.getOwner().getDisplayName(), group.getOwner().getDisplayName());
+            assertTrue("Creation time wasn't projected.", group.getCreatedAt() != null);
+        }
+    }
+
+    @Test
+    void groupLookupsHitSecondLevelCache() {
+        final Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        userGroupRepository.findByCode(memberGroup.getCode());
+
+        final long hitsBefore = statistics.getSecondLevelCacheHitCount();
+        final long naturalIdHitsBefore = statistics.getNaturalIdCacheHitCount();
+        assertTrue("The group couldn't be found by id.", userGroupRepository.findById(memberGroup.getId()).isPresent());
+        assertTrue("The group couldn't be found by code.", userGroupRepository.findByCode(memberGroup.getCode()).isPresent());
+
+        assertTrue("Group lookups didn't hit the second-level cache.",
+                statistics.getSecondLevelCacheHitCount() > hitsBefore);
+        assertTrue("Code lookups didn't hit the natural-id cache.",
+                statistics.getNaturalIdCacheHitCount() > naturalIdHitsBefore);
+    }
+
+    @Test
+    void joinGroupConcurrently() throws Exception {
+        final UserGroup joinGroup = new UserGroup();
+        joinGroup.setOwner(otherAccount);
+        joinGroup.setName("join-storm-group");
+        joinGroup.setCode(UUID.randomUUID().toString());
+        userGroupRepository.save(joinGroup);
+
+        final List<UserAccount> joiners = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final UserAccount joiner = new UserAccount();
+            joiner.setDisplayName("joiner-" + i);
+            joiner.setSpotifyId("joiner-" + i);
+            joiner.setSpotifyRefreshToken("test-refresh-token");
+            joiner.setSpotifyAccessToken("test-access-token");
+            joiners.add(userAccountRepository.save(joiner));
+        }
+        // Our account joins repeatedly, which must only count once
+        joiners.add(ourAccount);
+        joiners.add(ourAccount);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(joiners.size());
+        try {
+            final List<Future<UserGroup>> joins = new ArrayList<>();
+            for (UserAccount joiner : joiners) {
+                joins.add(executor.submit(() -> userGroupService.addMember(joinGroup, joiner)));
+            }
+            for (Future<UserGroup> join : joins) {
+                join.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final UserGroup joined = userGroupRepository.findById(joinGroup.getId()).get();
+        assertEquals("The member count doesn't match expected.", 9L, joined.getMemberCount());
+        assertEquals("The number of memberships doesn't match expected.",
+                9L, countMembers(joinGroup.getId()));
+    }
+
+    @Test
+    void bulkInsertMembersInBatches() throws Exception {
+        final List<UserAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            final UserAccount account = new UserAccount();
+            account.setDisplayName("imported-" + i);
+            account.setSpotifyId("imported-" + i);
+            accounts.add(account);
+        }
+
+        JdbcBatchCounter.record();
+        final List<GroupMembership> memberships = new ArrayList<>();
+        for (UserAccount account : userAccountRepository.insertAll(accounts)) {
+            memberships.add(new GroupMembership(ownerGroup, account, GroupRole.MEMBER));
+        }
+        groupMembershipRepository.insertAll(memberships);
+        userGroupRepository.adjustMemberCount(ownerGroup.getId(), memberships.size());
+
+        final int batchesPerTable = (accounts.size() + batchSize - 1) / batchSize;
+        assertEquals("Bulk inserts weren't batched.", 2 * batchesPerTable, JdbcBatchCounter.batches());
+        assertEquals("The number of memberships doesn't match expected.",
+                120L, countMembers(ownerGroup.getId()));
+
+        final MvcResult result = mvc.perform(get("/api/v1/groups/" + ownerGroup.getId() + "/members")
+                .param("limit", "100")
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk())
+                .andReturn();
+        final PageResponse<SimpleUserAccountResponse> response = messageConverter.getObjectMapper().readValue(
+                result.getResponse().getContentAsString(), createUserAccountPageTypeRef());
+        assertEquals("The number of members doesn't match expected.", 120L, response.getMaxRecords());
+        assertEquals("Items.size() doesn't match the limit.", 100, response.getItems().size());
+    }
+
+    @Test
+    void readsFromPrimaryAfterWriting() throws Exception {
+        final ReadWriteRoutingDataSource routingDataSource = dataSource.unwrap(ReadWriteRoutingDataSource.class);
+        final long replicaBeforeRead = routingDataSource.getConnectionCount(DataSourceRoute.REPLICA);
+        getOwnerGroupsPage();
+        assertTrue("Listing groups didn't read from the replica.",
+                routingDataSource.getConnectionCount(DataSourceRoute.REPLICA) > replicaBeforeRead);
+
+        final CreateGroupRequest request = new CreateGroupRequest();
+        request.setName("fresh-group");
+        makeCreateNewGroupRequest(request)
+                .andExpect(status().isOk());
+
+        final long replicaAfterWrite = routingDataSource.getConnectionCount(DataSourceRoute.REPLICA);
+        final long primaryAfterWrite = routingDataSource.getConnectionCount(DataSourceRoute.PRIMARY);
+        final PageResponse<SimpleUserGroupResponse> page = getOwnerGroupsPage();
+        assertEquals("The number of groups doesn't match expected.", 2, page.getItems().size());
+        assertEquals("Listing groups right after creating one read from the replica.",
+                replicaAfterWrite, routingDataSource.getConnectionCount(DataSourceRoute.REPLICA));
+        assertTrue("Listing groups right after creating one didn't read from the primary.",
+                routingDataSource.getConnectionCount(DataSourceRoute.PRIMARY) > primaryAfterWrite);
+    }
+
     private ResultActions makeCreateNewGroupRequest(CreateGroupRequest request) throws Exception {
         final String requestJson = messageConverter.getObjectMapper().writeValueAsString(request);
         return mvc.perform(post("/api/v1/groups")
@@ -324,16 +915,46 @@ class GroupControllerTest {
                 .content(requestJson));
     }
 
+    private GroupNameAvailabilityResponse getNameAvailability(String name) throws Exception {
+        final MvcResult result = mvc.perform(get("/api/v1/groups/names/available")
+                .param("name", name)
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk())
+                .andReturn();
+        return messageConverter.getObjectMapper().readValue(
+                result.getResponse().getContentAsString(), GroupNameAvailabilityResponse.class);
+    }
+
+    private PageResponse<SimpleUserGroupResponse> getOwnerGroupsPage() throws Exception {
+        final MvcResult result = mvc.perform(get("/api/v1/groups")
+                .param("type", "OWNER")
+                .header("Authorization", getAuthHeader()))
+                .andExpect(status().isOk())
+                .andReturn();
+        return messageConverter.getObjectMapper().readValue(
+                result.getResponse().getContentAsString(), createGroupPageTypeRef());
+    }
+
     private TypeReference<PageResponse<SimpleUserGroupResponse>> createGroupPageTypeRef() {
         return new TypeReference<PageResponse<SimpleUserGroupResponse>>() {
         };
     }
 
+    private TypeReference<CursorPageResponse<SimpleUserGroupResponse>> createGroupCursorPageTypeRef() {
+        return new TypeReference<CursorPageResponse<SimpleUserGroupResponse>>() {
+        };
+    }
+
     private TypeReference<PageResponse<SimpleUserAccountResponse>> createUserAccountPageTypeRef() {
         return new TypeReference<PageResponse<SimpleUserAccountResponse>>() {
         };
     }
 
+    private long countMembers(long groupId) {
+        return new JdbcTemplate(dataSource).queryForObject(
+                "select count(*) from group_membership where group_id = ? and role = 'MEMBER'", Long.class, groupId);
+    }
+
     private String getAuthHeader() {
         return "Bearer " + ourAuthToken.getToken();
     }
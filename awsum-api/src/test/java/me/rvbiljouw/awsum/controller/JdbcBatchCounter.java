@@ -0,0 +1,36 @@
+package me.rvbiljouw.awsum.controller;
+
+import org.hibernate.BaseSessionEventListener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the JDBC batches that sessions on the recording thread execute. Registered for every session
+ * through {@code hibernate.session.events.auto}.
+ */
+public class JdbcBatchCounter extends BaseSessionEventListener {
+    private static final AtomicInteger batches = new AtomicInteger();
+    private static volatile Thread recording;
+
+    /**
+     * Starts counting the batches executed on the current thread from zero.
+     */
+    static void record() {
+        batches.set(0);
+        recording = Thread.currentThread();
+    }
+
+    /**
+     * @return the no. of batches executed since {@link #record()}
+     */
+    static int batches() {
+        return batches.get();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        if (Thread.currentThread() == recording) {
+            batches.incrementAndGet();
+        }
+    }
+}
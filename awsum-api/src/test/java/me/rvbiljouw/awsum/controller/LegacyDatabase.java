@@ -0,0 +1,38 @@
+package me.rvbiljouw.awsum.controller;
+
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.util.function.Consumer;
+
+/**
+ * An embedded database that starts out with the schema from before migrations, to test upgrades with
+ */
+final class LegacyDatabase {
+    private static final String MIGRATIONS = "classpath:db/migration/h2";
+
+    private LegacyDatabase() {
+    }
+
+    /**
+     * Creates the schema from before migrations in a database of its own, seeds it, and then upgrades it
+     * the way an existing database is upgraded on startup.
+     *
+     * @param name the name of the database
+     * @param seed inserts the legacy rows
+     * @return a template on the upgraded database
+     */
+    static JdbcTemplate upgrade(String name, Consumer<JdbcTemplate> seed) {
+        final DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        Flyway.configure().dataSource(dataSource).locations(MIGRATIONS).target("1").load().migrate();
+        jdbc.execute("drop table \"flyway_schema_history\"");
+
+        seed.accept(jdbc);
+        Flyway.configure().dataSource(dataSource).locations(MIGRATIONS)
+                .baselineOnMigrate(true).baselineVersion("1").load().migrate();
+        return jdbc;
+    }
+}
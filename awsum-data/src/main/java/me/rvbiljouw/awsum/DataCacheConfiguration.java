@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum;
+
+import me.rvbiljouw.awsum.model.UserAccount;
+import me.rvbiljouw.awsum.model.UserGroup;
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Configures Hibernate's second-level cache with local, in-process Ehcache regions for the entities
+ * that are read far more often than they're written, and their natural-id lookups.
+ * Every region is bounded by entry count and time-to-live. Writes through Hibernate keep the
+ * regions up to date.
+ *
+ * @author rvbiljouw
+ */
+@Configuration
+public class DataCacheConfiguration {
+    private static final String NATURAL_ID_SUFFIX = "##NaturalId";
+
+    @Value("${data.cache.enabled:true}")
+    private boolean enabled;
+    @Value("${data.cache.statistics:false}")
+    private boolean statistics;
+    @Value("${data.cache.accounts.maximumSize:10000}")
+    private long accountsMaximumSize;
+    @Value("${data.cache.accounts.timeToLive:10m}")
+    private Duration accountsTimeToLive;
+    @Value("${data.cache.groups.maximumSize:10000}")
+    private long groupsMaximumSize;
+    @Value("${data.cache.groups.timeToLive:10m}")
+    private Duration groupsTimeToLive;
+
+    @Bean(destroyMethod = "close")
+    CacheManager dataCacheManager() {
+        final ConfigurationBuilder configuration = ConfigurationBuilder.newConfigurationBuilder()
+                .withCache(UserAccount.class.getName(), region(accountsMaximumSize, accountsTimeToLive))
+                .withCache(UserAccount.class.getName() + NATURAL_ID_SUFFIX, region(accountsMaximumSize, accountsTimeToLive))
+                .withCache(UserGroup.class.getName(), region(groupsMaximumSize, groupsTimeToLive))
+                .withCache(UserGroup.class.getName() + NATURAL_ID_SUFFIX, region(groupsMaximumSize, groupsTimeToLive));
+        final EhcacheCachingProvider provider = (EhcacheCachingProvider) Caching.getCachingProvider(
+                EhcacheCachingProvider.class.getName());
+        // Every application context gets a cache manager of its own
+        return provider.getCacheManager(URI.create("urn:awsum:data-cache:" + UUID.randomUUID()), configuration.build());
+    }
+
+    @Bean
+    HibernatePropertiesCustomizer dataCacheCustomizer(CacheManager dataCacheManager) {
+        return properties -> {
+            properties.put("hibernate.cache.use_second_level_cache", enabled);
+            properties.put("hibernate.cache.region.factory_class", "jcache");
+            properties.put("hibernate.javax.cache.cache_manager", dataCacheManager);
+            properties.put("hibernate.generate_statistics", statistics);
+        };
+    }
+
+    private static CacheConfiguration<Object, Object> region(long maximumSize, Duration timeToLive) {
+        return CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                Object.class, Object.class, ResourcePoolsBuilder.heap(maximumSize))
+                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(timeToLive))
+                .build();
+    }
+}
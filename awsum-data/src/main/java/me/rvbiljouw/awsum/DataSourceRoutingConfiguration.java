@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum;
+
+import com.zaxxer.hikari.HikariDataSource;
+import me.rvbiljouw.awsum.datasource.ReadWriteRoutingDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+/**
+ * Splits database traffic between the primary ({@code spring.datasource.*}) and a read replica
+ * ({@code data.datasource.replica.*}) once a replica url has been configured. Read-only transactions
+ * go to the replica, unless the current request has already written; see {@link ReadWriteRoutingDataSource}.
+ * Without a replica, Spring Boot's single datasource is used as is.
+ * <p>
+ * Both pools live inside the one {@link DataSource} bean, which can be unwrapped to the
+ * {@link ReadWriteRoutingDataSource}; more datasource beans would each trigger Spring Boot's initializer.
+ *
+ * @author rvbiljouw
+ */
+@Configuration
+@ConditionalOnProperty(name = "data.datasource.replica.url")
+public class DataSourceRoutingConfiguration {
+    private HikariDataSource primary;
+    private HikariDataSource replica;
+
+    @Bean
+    DataSource dataSource(DataSourceProperties primaryProperties, Environment environment) throws Exception {
+        final Binder binder = Binder.get(environment);
+        primary = createPool(binder, primaryProperties, "spring.datasource.hikari");
+        primary.setPoolName("primary");
+
+        final DataSourceProperties replicaProperties = binder
+                .bind("data.datasource.replica", DataSourceProperties.class)
+                .get();
+        replicaProperties.afterPropertiesSet();
+        replica = createPool(binder, replicaProperties, "data.datasource.replica.hikari");
+        replica.setPoolName("replica");
+        replica.setReadOnly(true);
+
+        final ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, replica);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    @PreDestroy
+    void close() {
+        if (primary != null) {
+            primary.close();
+        }
+        if (replica != null) {
+            replica.close();
+        }
+    }
+
+    private static HikariDataSource createPool(Binder binder, DataSourceProperties properties, String hikariPrefix) {
+        final HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind(hikariPrefix, Bindable.ofInstance(dataSource));
+        return dataSource;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends read-only transactions to a replica and everything else to the primary. Connections are routed
+ * when they're first used, so this has to sit behind a {@code LazyConnectionDataSourceProxy}; by then the
+ * transaction's read-only flag is known. Read-write transactions mark the current {@link RecentWriteMarker}
+ * scope, after which its read-only transactions go to the primary too.
+ *
+ * @author rvbiljouw
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    private final Map<DataSourceRoute, LongAdder> connectionCounts = new EnumMap<>(DataSourceRoute.class);
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica) {
+        final Map<Object, Object> targets = new HashMap<>();
+        targets.put(DataSourceRoute.PRIMARY, primary);
+        targets.put(DataSourceRoute.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        for (DataSourceRoute route : DataSourceRoute.values()) {
+            connectionCounts.put(route, new LongAdder());
+        }
+    }
+
+    @Override
+    protected DataSourceRoute determineCurrentLookupKey() {
+        final DataSourceRoute route = route();
+        connectionCounts.get(route).increment();
+        return route;
+    }
+
+    private static DataSourceRoute route() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return DataSourceRoute.PRIMARY;
+        }
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            RecentWriteMarker.mark();
+            return DataSourceRoute.PRIMARY;
+        }
+        return RecentWriteMarker.readsFromPrimary() ? DataSourceRoute.PRIMARY : DataSourceRoute.REPLICA;
+    }
+
+    /**
+     * @param route a route
+     * @return the number of connections that have been handed out for the route
+     */
+    public long getConnectionCount(DataSourceRoute route) {
+        return connectionCounts.get(route).sum();
+    }
+}
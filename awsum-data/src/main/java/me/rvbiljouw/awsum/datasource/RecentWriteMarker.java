@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.datasource;
+
+/**
+ * Remembers whether the current unit of work, usually a request, has written to the primary database.
+ * Once it has, everything it reads afterwards comes from the primary as well, so it never reads state
+ * that a replica hasn't caught up with yet. Outside of a scope, writes aren't remembered.
+ *
+ * @author rvbiljouw
+ */
+public final class RecentWriteMarker {
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+
+    private RecentWriteMarker() {
+    }
+
+    /**
+     * Starts a scope on the current thread
+     *
+     * @param readFromPrimary whether the scope should read from the primary even before it writes,
+     *                        e.g. because the same user wrote something in an earlier request
+     */
+    public static void begin(boolean readFromPrimary) {
+        SCOPE.set(new Scope(readFromPrimary));
+    }
+
+    /**
+     * Records a write, if a scope has been started on the current thread
+     */
+    public static void mark() {
+        final Scope scope = SCOPE.get();
+        if (scope != null) {
+            scope.wrote = true;
+        }
+    }
+
+    /**
+     * @return true if the current scope has written during this scope
+     */
+    public static boolean hasWritten() {
+        final Scope scope = SCOPE.get();
+        return scope != null && scope.wrote;
+    }
+
+    /**
+     * @return true if the current scope has to read from the primary
+     */
+    public static boolean readsFromPrimary() {
+        final Scope scope = SCOPE.get();
+        return scope != null && (scope.readFromPrimary || scope.wrote);
+    }
+
+    /**
+     * Ends the scope on the current thread
+     */
+    public static void end() {
+        SCOPE.remove();
+    }
+
+    private static final class Scope {
+        private final boolean readFromPrimary;
+        private boolean wrote;
+
+        private Scope(boolean readFromPrimary) {
+            this.readFromPrimary = readFromPrimary;
+        }
+    }
+}
@@ -25,29 +25,57 @@ package me.rvbiljouw.awsum.model;
 
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
-import org.springframework.data.jpa.domain.AbstractPersistable;
 
 import javax.persistence.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 
 /**
- * Auth token model
+ * Auth token model. Only a SHA-256 digest of the token is stored; the token itself
+ * is only known right after it has been created.
  *
  * @author rvbiljouw
  */
 @NamedQueries({
-        @NamedQuery(name = "AuthToken.findByToken", query = "select t from AuthToken t where t.token = :token")
+        @NamedQuery(name = "AuthToken.findByTokenHash", query = "select t from AuthToken t where t.tokenHash = :tokenHash"),
+        @NamedQuery(name = "AuthToken.findPrincipalByTokenHash", query = "select new me.rvbiljouw.awsum.projection.AuthPrincipal(" +
+                "t.id, t.createdAt, t.updatedAt, t.expiresAt, t.lastUsedAt, " +
+                "a.id, a.displayName, a.spotifyId, a.createdAt, a.updatedAt) " +
+                "from AuthToken t join t.account a where t.tokenHash = :tokenHash"),
+        @NamedQuery(name = "AuthToken.findAllTokenHashes", query = "select t.tokenHash from AuthToken t where t.tokenHash is not null"),
+        @NamedQuery(name = "AuthToken.findTokenHashesCreatedSince", query = "select t.tokenHash from AuthToken t " +
+                "where t.createdAt >= :since and t.tokenHash is not null"),
+        @NamedQuery(name = "AuthToken.findExpiredTokenIds", query = "select t.id from AuthToken t where t.id > :afterId " +
+                "and (t.expiresAt <= :now or t.lastUsedAt <= :idleSince) order by t.id"),
+        @NamedQuery(name = "AuthToken.deleteByIds", query = "delete from AuthToken t where t.id in :ids"),
+        @NamedQuery(name = "AuthToken.touch", query = "update AuthToken t set t.lastUsedAt = :lastUsedAt where t.id = :id")
 })
 @Entity
-public class AuthToken extends AbstractPersistable<Long> {
-    @ManyToOne
+@Table(indexes = {
+        @Index(name = "idx_auth_token_hash", columnList = "tokenHash", unique = true),
+        @Index(name = "idx_auth_token_account", columnList = "account_id"),
+        @Index(name = "idx_auth_token_expires_at", columnList = "expiresAt"),
+        @Index(name = "idx_auth_token_last_used_at", columnList = "lastUsedAt"),
+        @Index(name = "idx_auth_token_created_at", columnList = "createdAt")
+})
+public class AuthToken extends PooledPersistable {
+    public static final int TOKEN_HASH_LENGTH = 32;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     private UserAccount account;
+    @Transient
     private String token;
+    @Column(length = TOKEN_HASH_LENGTH)
+    private byte[] tokenHash;
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
     @UpdateTimestamp
     private LocalDateTime updatedAt;
+    private LocalDateTime expiresAt;
+    private LocalDateTime lastUsedAt;
 
     public AuthToken(Long id) {
         this.setId(id);
@@ -71,6 +99,15 @@ public class AuthToken extends AbstractPersistable<Long> {
 
     public void setToken(String token) {
         this.token = token;
+        this.tokenHash = token != null ? digest(token) : null;
+    }
+
+    public byte[] getTokenHash() {
+        return tokenHash;
+    }
+
+    public void setTokenHash(byte[] tokenHash) {
+        this.tokenHash = tokenHash;
     }
 
     public LocalDateTime getCreatedAt() {
@@ -88,4 +125,34 @@ public class AuthToken extends AbstractPersistable<Long> {
     public void setUpdatedAt(LocalDateTime updatedAt) {
         this.updatedAt = updatedAt;
     }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(LocalDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public LocalDateTime getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    public void setLastUsedAt(LocalDateTime lastUsedAt) {
+        this.lastUsedAt = lastUsedAt;
+    }
+
+    /**
+     * Computes the fixed-width digest that tokens are stored and looked up by
+     *
+     * @param token token string
+     * @return a SHA-256 digest of the token
+     */
+    public static byte[] digest(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM.", e);
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.model;
+
+import org.hibernate.annotations.CreationTimestamp;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Membership of a {@link UserAccount} in a {@link UserGroup}. Owners have a membership with the
+ * {@link GroupRole#OWNER} role, but aren't counted or listed as members of their own group.
+ * Joins go through a conditional insert that does nothing if the membership already exists,
+ * so concurrent or repeated joins never duplicate rows or rewrite other members.
+ *
+ * @author rvbiljouw
+ */
+@NamedQueries({
+        @NamedQuery(name = "GroupMembership.findMembersByGroupId", query = "select new me.rvbiljouw.awsum.projection.AccountSummary(a.id, a.displayName, a.spotifyId, a.createdAt, a.updatedAt) " +
+                "from GroupMembership gm join gm.account a " +
+                "where gm.id.groupId = :groupId and gm.role = me.rvbiljouw.awsum.model.GroupRole.MEMBER order by gm.joinedAt, gm.id.accountId"),
+        @NamedQuery(name = "GroupMembership.existsMember", query = "select case when count(gm) > 0 then true else false end " +
+                "from GroupMembership gm where gm.id.groupId = :groupId and gm.id.accountId = :accountId")
+})
+@NamedNativeQueries({
+        @NamedNativeQuery(name = "GroupMembership.insertIfAbsent", query = "insert into group_membership (group_id, account_id, role, joined_at) " +
+                "select :groupId, :accountId, :role, :joinedAt from (select 1 as one) dual_row where not exists " +
+                "(select 1 from group_membership gm where gm.group_id = :groupId and gm.account_id = :accountId)")
+})
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_group_membership_group_joined", columnList = "group_id, joinedAt, account_id"),
+        @Index(name = "idx_group_membership_account_role", columnList = "account_id, role, joinedAt, group_id"),
+        @Index(name = "idx_group_membership_account_joined", columnList = "account_id, joinedAt, group_id")
+})
+public class GroupMembership implements Persistable<GroupMembershipId> {
+    @EmbeddedId
+    private GroupMembershipId id;
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "group_id", insertable = false, updatable = false)
+    private UserGroup group;
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "account_id", insertable = false, updatable = false)
+    private UserAccount account;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private GroupRole role;
+    @CreationTimestamp
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime joinedAt;
+    @Transient
+    private boolean isNew = true;
+
+    public GroupMembership() {
+    }
+
+    public GroupMembership(UserGroup group, UserAccount account, GroupRole role) {
+        this.id = new GroupMembershipId(group.getId(), account.getId());
+        this.group = group;
+        this.account = account;
+        this.role = role;
+    }
+
+    @Override
+    public GroupMembershipId getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    public UserGroup getGroup() {
+        return group;
+    }
+
+    public UserAccount getAccount() {
+        return account;
+    }
+
+    public GroupRole getRole() {
+        return role;
+    }
+
+    public void setRole(GroupRole role) {
+        this.role = role;
+    }
+
+    public LocalDateTime getJoinedAt() {
+        return joinedAt;
+    }
+
+    public void setJoinedAt(LocalDateTime joinedAt) {
+        this.joinedAt = joinedAt;
+    }
+}
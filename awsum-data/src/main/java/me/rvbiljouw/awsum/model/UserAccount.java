@@ -23,31 +23,86 @@
  */
 package me.rvbiljouw.awsum.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.hibernate.annotations.UpdateTimestamp;
-import org.springframework.data.jpa.domain.AbstractPersistable;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.NamedNativeQueries;
+import javax.persistence.NamedNativeQuery;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.Table;
 import java.time.LocalDateTime;
 
 /**
- * User account model
+ * User account model. Accounts are kept in the second-level cache, by id and by Spotify id.
+ * Logins write through a single upsert keyed on the Spotify id, which leaves the row alone if
+ * the tokens haven't changed; other updates only write the columns that changed. The expiry of the
+ * Spotify access token is stored along with it, so tokens can be refreshed before they expire.
  *
  * @author rvbiljouw
  */
+@NamedQueries({
+        @NamedQuery(name = "UserAccount.findWithTokenExpiringBefore", query = "select a from UserAccount a " +
+                "where a.id > :afterId and a.spotifyTokenExpiresAt < :before and a.spotifyRefreshToken is not null " +
+                "order by a.id")
+})
+@NamedNativeQueries({
+        @NamedNativeQuery(name = "UserAccount.swapTokenExpiry", query = "update user_account " +
+                "set spotify_token_expires_at = :expiresAt where id = :id and spotify_token_expires_at = :seen"),
+        @NamedNativeQuery(name = "UserAccount.upsertSpotifyTokens", query = "merge into user_account a " +
+                "using (select cast(:spotifyId as varchar(255)) as spotify_id, " +
+                "cast(:accessToken as varchar(255)) as access_token, " +
+                "cast(:refreshToken as varchar(255)) as refresh_token, " +
+                "cast(:expiresAt as timestamp) as expires_at) t " +
+                "on (a.spotify_id = t.spotify_id) " +
+                "when matched and (a.spotify_access_token is distinct from t.access_token " +
+                "or a.spotify_refresh_token is distinct from t.refresh_token) then update " +
+                "set spotify_access_token = t.access_token, spotify_refresh_token = t.refresh_token, " +
+                "spotify_token_expires_at = t.expires_at, updated_at = :now " +
+                "when not matched then insert " +
+                "(id, display_name, spotify_id, spotify_access_token, spotify_refresh_token, spotify_token_expires_at, " +
+                "created_at, updated_at) " +
+                "values (next value for user_account_seq, t.spotify_id, t.spotify_id, t.access_token, t.refresh_token, " +
+                "t.expires_at, :now, :now)"),
+        @NamedNativeQuery(name = "UserAccount.upsertSpotifyTokensPostgreSQL", resultClass = UserAccount.class,
+                query = "insert into user_account " +
+                "(id, display_name, spotify_id, spotify_access_token, spotify_refresh_token, spotify_token_expires_at, " +
+                "created_at, updated_at) " +
+                "values (nextval('user_account_seq'), :spotifyId, :spotifyId, :accessToken, :refreshToken, :expiresAt, " +
+                ":now, :now) " +
+                "on conflict (spotify_id) do update " +
+                "set spotify_access_token = excluded.spotify_access_token, spotify_refresh_token = excluded.spotify_refresh_token, " +
+                "spotify_token_expires_at = excluded.spotify_token_expires_at, updated_at = excluded.updated_at " +
+                "where user_account.spotify_access_token is distinct from excluded.spotify_access_token " +
+                "or user_account.spotify_refresh_token is distinct from excluded.spotify_refresh_token " +
+                "returning *")
+})
 @Entity
-@NamedQueries(value = {
-        @NamedQuery(name = "UserAccount.findBySpotifyId", query = "select acc from UserAccount acc where acc.spotifyId = :spotifyId")
+@Table(indexes = {
+        @Index(name = "idx_user_account_spotify_id", columnList = "spotifyId", unique = true),
+        @Index(name = "idx_user_account_spotify_token_expires_at", columnList = "spotifyTokenExpiresAt")
 })
-public class UserAccount extends AbstractPersistable<Long> {
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NaturalIdCache
+@DynamicUpdate
+public class UserAccount extends PooledPersistable {
     @Column(nullable = false)
     private String displayName;
+    @NaturalId
     private String spotifyId;
     private String spotifyAccessToken;
     private String spotifyRefreshToken;
+    private LocalDateTime spotifyTokenExpiresAt;
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -94,6 +149,14 @@ public class UserAccount extends AbstractPersistable<Long> {
         this.spotifyRefreshToken = spotifyRefreshToken;
     }
 
+    public LocalDateTime getSpotifyTokenExpiresAt() {
+        return spotifyTokenExpiresAt;
+    }
+
+    public void setSpotifyTokenExpiresAt(LocalDateTime spotifyTokenExpiresAt) {
+        this.spotifyTokenExpiresAt = spotifyTokenExpiresAt;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -23,35 +23,98 @@
  */
 package me.rvbiljouw.awsum.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.hibernate.annotations.UpdateTimestamp;
-import org.springframework.data.jpa.domain.AbstractPersistable;
 
 import javax.persistence.*;
+import java.text.Normalizer;
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.Locale;
 
 /**
- * User group model
+ * User group model. Members are stored as {@link GroupMembership} rows rather than a collection on the group,
+ * and the owner has a membership row of its own, so all groups of an account can be listed from one index.
+ * Groups are kept in the second-level cache, by id and by join code.
  *
  * @author rvbiljouw
  */
 @NamedQueries({
-        @NamedQuery(name = "UserGroup.findByOwnerId", query = "select ug from UserGroup ug where ug.owner.id = :ownerId"),
-        @NamedQuery(name = "UserGroup.findByMemberId", query = "select ug from UserGroup ug join ug.members m where m.id = :memberId"),
-        @NamedQuery(name = "UserGroup.findInvolvingAccountId", query = "select ug from UserGroup ug left join ug.members m where m.id = :accountId or ug.owner.id = :accountId"),
-        @NamedQuery(name = "UserGroup.findByName", query = "select ug from UserGroup ug where ug.name = :name"),
-        @NamedQuery(name = "UserGroup.findByCode", query = "select ug from UserGroup ug where ug.code = :code"),
-        @NamedQuery(name = "UserGroup.findMembersByGroupId", query = "select ug.members from UserGroup ug where ug.id = :groupId")
+        @NamedQuery(name = "UserGroup.findByOwnerId", query = UserGroup.SELECT_SUMMARY +
+                "from UserGroup ug join ug.owner o where o.id = :ownerId"),
+        @NamedQuery(name = "UserGroup.findByMemberId", query = UserGroup.SELECT_SUMMARY +
+                "from GroupMembership gm join gm.group ug join ug.owner o " +
+                "where gm.id.accountId = :memberId and gm.role = me.rvbiljouw.awsum.model.GroupRole.MEMBER"),
+        @NamedQuery(name = "UserGroup.findInvolvingAccountId", query = UserGroup.SELECT_SUMMARY +
+                "from GroupMembership gm join gm.group ug join ug.owner o where gm.id.accountId = :accountId"),
+        @NamedQuery(name = "UserGroup.existsByNormalizedName", query = "select case when count(ug) > 0 then true else false end " +
+                "from UserGroup ug where ug.normalizedName = :normalizedName"),
+        @NamedQuery(name = "UserGroup.findAllNormalizedNames", query = "select ug.normalizedName from UserGroup ug"),
+        @NamedQuery(name = "UserGroup.findNormalizedNamesCreatedSince", query = "select ug.normalizedName from UserGroup ug where ug.createdAt >= :since"),
+        @NamedQuery(name = "UserGroup.findIdByCode", query = "select ug.id from UserGroup ug where ug.code = :code"),
+        @NamedQuery(name = "UserGroup.findExistingCodes", query = "select ug.code from UserGroup ug where ug.code in :codes"),
+        @NamedQuery(name = "UserGroup.findMemberCountById", query = "select ug.memberCount from UserGroup ug where ug.id = :id"),
+        @NamedQuery(name = "UserGroup.countByOwnerId", query = "select count(ug) from UserGroup ug where ug.owner.id = :ownerId"),
+        @NamedQuery(name = "UserGroup.countByMemberId", query = "select count(gm) from GroupMembership gm " +
+                "where gm.id.accountId = :memberId and gm.role = me.rvbiljouw.awsum.model.GroupRole.MEMBER"),
+        @NamedQuery(name = "UserGroup.countInvolvingAccountId", query = "select count(gm) from GroupMembership gm where gm.id.accountId = :accountId"),
+        @NamedQuery(name = "UserGroup.findByOwnerIdBefore", query = UserGroup.SELECT_SUMMARY +
+                "from UserGroup ug join ug.owner o where o.id = :ownerId " +
+                "and (ug.createdAt < :createdAt or (ug.createdAt = :createdAt and ug.id < :id)) " +
+                "order by ug.createdAt desc, ug.id desc"),
+        @NamedQuery(name = "UserGroup.findByMemberIdBefore", query = UserGroup.SELECT_SUMMARY_WITH_JOINED_AT +
+                "from GroupMembership gm join gm.group ug join ug.owner o " +
+                "where gm.id.accountId = :memberId and gm.role = me.rvbiljouw.awsum.model.GroupRole.MEMBER " +
+                "and (gm.joinedAt < :joinedAt or (gm.joinedAt = :joinedAt and gm.id.groupId < :groupId)) " +
+                "order by gm.joinedAt desc, gm.id.groupId desc"),
+        @NamedQuery(name = "UserGroup.findInvolvingAccountIdBefore", query = UserGroup.SELECT_SUMMARY_WITH_JOINED_AT +
+                "from GroupMembership gm join gm.group ug join ug.owner o where gm.id.accountId = :accountId " +
+                "and (gm.joinedAt < :joinedAt or (gm.joinedAt = :joinedAt and gm.id.groupId < :groupId)) " +
+                "order by gm.joinedAt desc, gm.id.groupId desc")
+})
+@NamedNativeQueries({
+        @NamedNativeQuery(name = "UserGroup.consumeCodeUse", query = "update user_group " +
+                "set code_uses = code_uses + 1, version = coalesce(version, 0) + 1 " +
+                "where id = :id and (code_max_uses is null or code_uses < code_max_uses)"),
+        @NamedNativeQuery(name = "UserGroup.adjustMemberCount", query = "update user_group " +
+                "set member_count = member_count + :delta, version = coalesce(version, 0) + 1 where id = :id")
 })
 @Entity
-public class UserGroup extends AbstractPersistable<Long> {
+@Table(indexes = {
+        @Index(name = "idx_user_group_owner_created", columnList = "owner_id, createdAt, id"),
+        @Index(name = "idx_user_group_created", columnList = "createdAt, id"),
+        @Index(name = "idx_user_group_code", columnList = "code", unique = true),
+        @Index(name = "idx_user_group_normalized_name", columnList = "normalizedName", unique = true)
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NaturalIdCache
+public class UserGroup extends PooledPersistable {
+    private static final String SUMMARY_FIELDS = "ug.id, ug.name, ug.memberCount, ug.createdAt, ug.updatedAt, " +
+            "o.id, o.displayName, o.spotifyId, o.createdAt, o.updatedAt";
+    static final String SELECT_SUMMARY = "select new me.rvbiljouw.awsum.projection.GroupSummary(" +
+            SUMMARY_FIELDS + ") ";
+    static final String SELECT_SUMMARY_WITH_JOINED_AT = "select new me.rvbiljouw.awsum.projection.GroupSummary(" +
+            SUMMARY_FIELDS + ", gm.joinedAt) ";
+
     @ManyToOne
     private UserAccount owner;
-    @ManyToMany
-    private List<UserAccount> members;
     private String name;
+    @Column(nullable = false)
+    private String normalizedName;
+    @NaturalId(mutable = true)
     private String code;
+    private LocalDateTime codeExpiresAt;
+    private Long codeMaxUses;
+    @Column(nullable = false)
+    private long codeUses;
+    @Column(nullable = false)
+    private long memberCount;
+    @Version
+    private Long version;
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -74,20 +137,17 @@ public class UserGroup extends AbstractPersistable<Long> {
         this.owner = admin;
     }
 
-    public List<UserAccount> getMembers() {
-        return members;
-    }
-
-    public void setMembers(List<UserAccount> members) {
-        this.members = members;
-    }
-
     public String getName() {
         return name;
     }
 
     public void setName(String name) {
         this.name = name;
+        this.normalizedName = normalizeName(name);
+    }
+
+    public String getNormalizedName() {
+        return normalizedName;
     }
 
     public String getCode() {
@@ -98,6 +158,42 @@ public class UserGroup extends AbstractPersistable<Long> {
         this.code = uuid;
     }
 
+    public LocalDateTime getCodeExpiresAt() {
+        return codeExpiresAt;
+    }
+
+    public void setCodeExpiresAt(LocalDateTime codeExpiresAt) {
+        this.codeExpiresAt = codeExpiresAt;
+    }
+
+    public Long getCodeMaxUses() {
+        return codeMaxUses;
+    }
+
+    public void setCodeMaxUses(Long codeMaxUses) {
+        this.codeMaxUses = codeMaxUses;
+    }
+
+    public long getCodeUses() {
+        return codeUses;
+    }
+
+    public void setCodeUses(long codeUses) {
+        this.codeUses = codeUses;
+    }
+
+    public long getMemberCount() {
+        return memberCount;
+    }
+
+    public void setMemberCount(long memberCount) {
+        this.memberCount = memberCount;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -113,4 +209,18 @@ public class UserGroup extends AbstractPersistable<Long> {
     public void setUpdatedAt(LocalDateTime updatedAt) {
         this.updatedAt = updatedAt;
     }
+
+    /**
+     * Folds a group name into the form that has to be unique, so names that only differ
+     * in case, surrounding whitespace or Unicode representation collide.
+     *
+     * @param name a group name
+     * @return the normalized name, or null if the name is null
+     */
+    public static String normalizeName(String name) {
+        if (name == null) {
+            return null;
+        }
+        return Normalizer.normalize(name.trim(), Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
 }
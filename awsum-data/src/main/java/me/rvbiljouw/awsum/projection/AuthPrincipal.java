@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.projection;
+
+import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.model.UserAccount;
+
+import java.time.LocalDateTime;
+
+/**
+ * An immutable snapshot of an {@link AuthToken} and the {@link UserAccount} it belongs to.
+ * Unlike the entities it's derived from, it's safe to keep around outside of a persistence context.
+ * <p>
+ * It's loaded in a single statement through {@link me.rvbiljouw.awsum.repository.AuthTokenRepository#findPrincipalByToken(String)},
+ * and deliberately doesn't hold the token string: tokens are only stored as a digest.
+ *
+ * @author rvbiljouw
+ */
+public final class AuthPrincipal {
+    private final Long tokenId;
+    private final LocalDateTime tokenCreatedAt;
+    private final LocalDateTime tokenUpdatedAt;
+    private final LocalDateTime tokenExpiresAt;
+    private final LocalDateTime tokenLastUsedAt;
+    private final long accountId;
+    private final String displayName;
+    private final String spotifyId;
+    private final LocalDateTime accountCreatedAt;
+    private final LocalDateTime accountUpdatedAt;
+
+    public AuthPrincipal(Long tokenId, LocalDateTime tokenCreatedAt, LocalDateTime tokenUpdatedAt,
+                         LocalDateTime tokenExpiresAt, LocalDateTime tokenLastUsedAt,
+                         long accountId, String displayName, String spotifyId,
+                         LocalDateTime accountCreatedAt, LocalDateTime accountUpdatedAt) {
+        this.tokenId = tokenId;
+        this.tokenCreatedAt = tokenCreatedAt;
+        this.tokenUpdatedAt = tokenUpdatedAt;
+        this.tokenExpiresAt = tokenExpiresAt;
+        this.tokenLastUsedAt = tokenLastUsedAt;
+        this.accountId = accountId;
+        this.displayName = displayName;
+        this.spotifyId = spotifyId;
+        this.accountCreatedAt = accountCreatedAt;
+        this.accountUpdatedAt = accountUpdatedAt;
+    }
+
+    /**
+     * Takes a snapshot of an {@link AuthToken} and its account
+     *
+     * @param authToken the token
+     * @return a principal snapshot
+     */
+    public static AuthPrincipal of(AuthToken authToken) {
+        final UserAccount account = authToken.getAccount();
+        return new AuthPrincipal(
+                authToken.getId(),
+                authToken.getCreatedAt(),
+                authToken.getUpdatedAt(),
+                authToken.getExpiresAt(),
+                authToken.getLastUsedAt(),
+                account.getId(),
+                account.getDisplayName(),
+                account.getSpotifyId(),
+                account.getCreatedAt(),
+                account.getUpdatedAt());
+    }
+
+    public Long getTokenId() {
+        return tokenId;
+    }
+
+    public LocalDateTime getTokenCreatedAt() {
+        return tokenCreatedAt;
+    }
+
+    public LocalDateTime getTokenUpdatedAt() {
+        return tokenUpdatedAt;
+    }
+
+    public LocalDateTime getTokenExpiresAt() {
+        return tokenExpiresAt;
+    }
+
+    public LocalDateTime getTokenLastUsedAt() {
+        return tokenLastUsedAt;
+    }
+
+    /**
+     * Creates a copy of this principal with a different last used timestamp
+     *
+     * @param lastUsedAt the new timestamp
+     * @return a copy of this principal
+     */
+    public AuthPrincipal withTokenLastUsedAt(LocalDateTime lastUsedAt) {
+        return new AuthPrincipal(tokenId, tokenCreatedAt, tokenUpdatedAt, tokenExpiresAt, lastUsedAt,
+                accountId, displayName, spotifyId, accountCreatedAt, accountUpdatedAt);
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getSpotifyId() {
+        return spotifyId;
+    }
+
+    public LocalDateTime getAccountCreatedAt() {
+        return accountCreatedAt;
+    }
+
+    public LocalDateTime getAccountUpdatedAt() {
+        return accountUpdatedAt;
+    }
+}
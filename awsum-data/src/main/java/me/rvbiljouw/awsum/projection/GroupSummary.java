@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.projection;
+
+import me.rvbiljouw.awsum.model.UserGroup;
+
+import java.time.LocalDateTime;
+
+/**
+ * The listed columns of a {@link UserGroup} together with its owner's {@link AccountSummary},
+ * selected in a single joined query instead of loading the owner per group.
+ *
+ * @author rvbiljouw
+ */
+public final class GroupSummary {
+    private final long id;
+    private final String name;
+    private final long memberCount;
+    private final LocalDateTime createdAt;
+    private final LocalDateTime updatedAt;
+    private final AccountSummary owner;
+    private final LocalDateTime joinedAt;
+
+    public GroupSummary(long id, String name, long memberCount,
+                        LocalDateTime createdAt, LocalDateTime updatedAt,
+                        long ownerId, String ownerDisplayName, String ownerSpotifyId,
+                        LocalDateTime ownerCreatedAt, LocalDateTime ownerUpdatedAt) {
+        this(id, name, memberCount, createdAt, updatedAt,
+                ownerId, ownerDisplayName, ownerSpotifyId, ownerCreatedAt, ownerUpdatedAt, null);
+    }
+
+    public GroupSummary(long id, String name, long memberCount,
+                        LocalDateTime createdAt, LocalDateTime updatedAt,
+                        long ownerId, String ownerDisplayName, String ownerSpotifyId,
+                        LocalDateTime ownerCreatedAt, LocalDateTime ownerUpdatedAt,
+                        LocalDateTime joinedAt) {
+        this.id = id;
+        this.name = name;
+        this.memberCount = memberCount;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.owner = new AccountSummary(ownerId, ownerDisplayName, ownerSpotifyId, ownerCreatedAt, ownerUpdatedAt);
+        this.joinedAt = joinedAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getMemberCount() {
+        return memberCount;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public AccountSummary getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return when the listing account joined the group, if the group was listed by membership
+     */
+    public LocalDateTime getJoinedAt() {
+        return joinedAt;
+    }
+}
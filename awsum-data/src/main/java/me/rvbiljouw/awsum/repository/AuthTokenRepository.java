@@ -24,18 +24,52 @@
 package me.rvbiljouw.awsum.repository;
 
 import me.rvbiljouw.awsum.model.AuthToken;
+import me.rvbiljouw.awsum.projection.AuthPrincipal;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * @author rvbiljouw
  */
 @Component
-public interface AuthTokenRepository extends CrudRepository<AuthToken, Long> {
+public interface AuthTokenRepository extends CrudRepository<AuthToken, Long>, BulkInsertRepository<AuthToken> {
 
-    Optional<AuthToken> findByToken(@Param("token") String token);
+    Optional<AuthToken> findByTokenHash(@Param("tokenHash") byte[] tokenHash);
+
+    List<byte[]> findAllTokenHashes();
+
+    List<byte[]> findTokenHashesCreatedSince(@Param("since") LocalDateTime since);
+
+    List<Long> findExpiredTokenIds(@Param("now") LocalDateTime now,
+                                   @Param("idleSince") LocalDateTime idleSince,
+                                   @Param("afterId") long afterId,
+                                   Pageable pageable);
+
+    @Modifying
+    @Transactional
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Transactional
+    int touch(@Param("id") long id, @Param("lastUsedAt") LocalDateTime lastUsedAt);
+
+    Optional<AuthPrincipal> findPrincipalByTokenHash(@Param("tokenHash") byte[] tokenHash);
+
+    default Optional<AuthToken> findByToken(String token) {
+        return findByTokenHash(AuthToken.digest(token));
+    }
+
+    default Optional<AuthPrincipal> findPrincipalByToken(String token) {
+        return findPrincipalByTokenHash(AuthToken.digest(token));
+    }
 
 }
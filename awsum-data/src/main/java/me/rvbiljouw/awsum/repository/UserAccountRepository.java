@@ -24,18 +24,22 @@
 package me.rvbiljouw.awsum.repository;
 
 import me.rvbiljouw.awsum.model.UserAccount;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.util.Optional;
+import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * @author rvbiljouw
  */
 @Repository
-public interface UserAccountRepository extends CrudRepository<UserAccount, Long> {
-
-    Optional<UserAccount> findBySpotifyId(@Param("spotifyId") String spotifyId);
+public interface UserAccountRepository extends CrudRepository<UserAccount, Long>, UserAccountRepositoryCustom,
+        BulkInsertRepository<UserAccount> {
 
+    List<UserAccount> findWithTokenExpiringBefore(@Param("before") LocalDateTime before,
+                                                  @Param("afterId") long afterId,
+                                                  Pageable pageable);
 }
@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.repository;
+
+import me.rvbiljouw.awsum.model.UserAccount;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Lookups of {@link UserAccount}s that go through Hibernate's natural-id cache, and the login upsert
+ *
+ * @author rvbiljouw
+ */
+public interface UserAccountRepositoryCustom {
+
+    Optional<UserAccount> findBySpotifyId(String spotifyId);
+
+    /**
+     * Creates the account for a Spotify id, or updates its Spotify tokens, in a single statement
+     * that returns the written row. Existing accounts whose tokens haven't changed aren't written to at all.
+     *
+     * @param spotifyId    the Spotify user id
+     * @param accessToken  the Spotify access token
+     * @param refreshToken the Spotify refresh token
+     * @param expiresAt    when the access token expires, or null if unknown
+     * @return the account if it was created or updated, nothing if it was already up-to-date
+     */
+    Optional<UserAccount> upsertSpotifyTokens(String spotifyId, String accessToken, String refreshToken, LocalDateTime expiresAt);
+
+    /**
+     * Sets the token expiry of an account, but only if it still has the expiry that was seen before. Used to
+     * lease an account's token refresh to a single node: the lease moves the expiry past the refresh window.
+     *
+     * @param id        the account id
+     * @param seen      the expiry that was seen before
+     * @param expiresAt the new expiry
+     * @return the no. of updated rows, 0 if the expiry changed in the meantime
+     */
+    int swapTokenExpiry(long id, LocalDateTime seen, LocalDateTime expiresAt);
+
+}
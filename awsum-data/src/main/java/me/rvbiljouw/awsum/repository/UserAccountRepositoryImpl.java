@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.repository;
+
+import me.rvbiljouw.awsum.model.UserAccount;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.LocalDateTimeType;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * @author rvbiljouw
+ */
+class UserAccountRepositoryImpl implements UserAccountRepositoryCustom {
+    // Not a table; declaring it keeps Hibernate from clearing every cache region after an update
+    private static final String UPDATE_QUERY_SPACE = "user_account_update";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<UserAccount> findBySpotifyId(String spotifyId) {
+        return entityManager.unwrap(Session.class)
+                .bySimpleNaturalId(UserAccount.class)
+                .loadOptional(spotifyId);
+    }
+
+    @Override
+    @Transactional
+    public Optional<UserAccount> upsertSpotifyTokens(String spotifyId, String accessToken, String refreshToken,
+                                                     LocalDateTime expiresAt) {
+        final Session session = entityManager.unwrap(Session.class);
+        final NativeQuery<?> upsert = session.createNamedQuery(upsertQueryName(session))
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(UPDATE_QUERY_SPACE)
+                .setParameter("spotifyId", spotifyId)
+                .setParameter("accessToken", accessToken)
+                .setParameter("refreshToken", refreshToken)
+                .setParameter("expiresAt", expiresAt, LocalDateTimeType.INSTANCE)
+                .setParameter("now", LocalDateTime.now());
+
+        final Optional<UserAccount> written;
+        if (returnsWrittenRow(session)) {
+            // The row isn't cached from here, the transaction hasn't committed it yet
+            written = upsert.setCacheMode(CacheMode.IGNORE)
+                    .uniqueResultOptional()
+                    .map(UserAccount.class::cast);
+        } else if (upsert.executeUpdate() > 0) {
+            // H2 loses the update when a merge is selected from, so read the row back in this transaction
+            evict(session, session.bySimpleNaturalId(UserAccount.class).getReference(spotifyId));
+            written = session.bySimpleNaturalId(UserAccount.class).loadOptional(spotifyId);
+        } else {
+            written = Optional.empty();
+        }
+
+        // The Spotify id never moves to another account, so only the account's own state is stale
+        written.ifPresent(account -> evict(session, account));
+        return written;
+    }
+
+    @Override
+    @Transactional
+    public int swapTokenExpiry(long id, LocalDateTime seen, LocalDateTime expiresAt) {
+        final Session session = entityManager.unwrap(Session.class);
+        final int updated = session.createNamedQuery("UserAccount.swapTokenExpiry")
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(UPDATE_QUERY_SPACE)
+                .setParameter("id", id)
+                .setParameter("seen", seen, LocalDateTimeType.INSTANCE)
+                .setParameter("expiresAt", expiresAt, LocalDateTimeType.INSTANCE)
+                .executeUpdate();
+        if (updated > 0) {
+            evict(session, session.getReference(UserAccount.class, id));
+        }
+        return updated;
+    }
+
+    private static void evict(Session session, UserAccount account) {
+        if (account != null) {
+            session.getSessionFactory().getCache().evictEntityData(UserAccount.class, account.getId());
+            session.evict(account);
+        }
+    }
+
+    private static String upsertQueryName(Session session) {
+        return returnsWrittenRow(session)
+                ? "UserAccount.upsertSpotifyTokensPostgreSQL"
+                : "UserAccount.upsertSpotifyTokens";
+    }
+
+    private static boolean returnsWrittenRow(Session session) {
+        final Dialect dialect = session.getSessionFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices()
+                .getDialect();
+        return dialect instanceof PostgreSQL81Dialect;
+    }
+}
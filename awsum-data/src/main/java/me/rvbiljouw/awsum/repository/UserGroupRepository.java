@@ -23,33 +23,64 @@
  */
 package me.rvbiljouw.awsum.repository;
 
-import me.rvbiljouw.awsum.model.UserAccount;
 import me.rvbiljouw.awsum.model.UserGroup;
-import org.springframework.data.domain.Page;
+import me.rvbiljouw.awsum.projection.GroupSummary;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * @author rvbiljouw
  */
 @Repository
-public interface UserGroupRepository extends CrudRepository<UserGroup, Long>, PagingAndSortingRepository<UserGroup, Long> {
+public interface UserGroupRepository extends CrudRepository<UserGroup, Long>, PagingAndSortingRepository<UserGroup, Long>,
+        UserGroupRepositoryCustom {
 
-    Page<UserGroup> findByOwnerId(@Param("ownerId") long ownerId, Pageable pageable);
+    Slice<GroupSummary> findByOwnerId(@Param("ownerId") long ownerId, Pageable pageable);
 
-    Page<UserGroup> findByMemberId(@Param("memberId") long memberId, Pageable pageable);
+    Slice<GroupSummary> findByMemberId(@Param("memberId") long memberId, Pageable pageable);
 
-    Page<UserGroup> findInvolvingAccountId(@Param("accountId") long accountId, Pageable pageable);
+    Slice<GroupSummary> findInvolvingAccountId(@Param("accountId") long accountId, Pageable pageable);
 
-    Page<UserAccount> findMembersByGroupId(@Param("groupId") long groupId, Pageable pageable);
+    long countByOwnerId(@Param("ownerId") long ownerId);
 
-    Optional<UserGroup> findByName(@Param("name") String name);
+    long countByMemberId(@Param("memberId") long memberId);
 
-    Optional<UserGroup> findByCode(@Param("code") String code);
+    long countInvolvingAccountId(@Param("accountId") long accountId);
+
+    List<GroupSummary> findByOwnerIdBefore(@Param("ownerId") long ownerId,
+                                           @Param("createdAt") LocalDateTime createdAt,
+                                           @Param("id") long id,
+                                           Pageable pageable);
+
+    List<GroupSummary> findByMemberIdBefore(@Param("memberId") long memberId,
+                                            @Param("joinedAt") LocalDateTime joinedAt,
+                                            @Param("groupId") long groupId,
+                                            Pageable pageable);
+
+    List<GroupSummary> findInvolvingAccountIdBefore(@Param("accountId") long accountId,
+                                                    @Param("joinedAt") LocalDateTime joinedAt,
+                                                    @Param("groupId") long groupId,
+                                                    Pageable pageable);
+
+    boolean existsByNormalizedName(@Param("normalizedName") String normalizedName);
+
+    List<String> findAllNormalizedNames();
+
+    List<String> findNormalizedNamesCreatedSince(@Param("since") LocalDateTime since);
+
+    Optional<Long> findIdByCode(@Param("code") String code);
+
+    List<String> findExistingCodes(@Param("codes") Collection<String> codes);
+
+    long findMemberCountById(@Param("id") long id);
 
 }
@@ -0,0 +1,57 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.repository;
+
+import me.rvbiljouw.awsum.model.UserGroup;
+
+import java.util.Optional;
+
+/**
+ * Lookups of {@link UserGroup}s that go through Hibernate's natural-id cache, and atomic
+ * updates of a single group that only evict that group from the second-level cache.
+ *
+ * @author rvbiljouw
+ */
+public interface UserGroupRepositoryCustom {
+
+    Optional<UserGroup> findByCode(String code);
+
+    /**
+     * Uses up one use of a group's join code, unless its limit has been reached
+     *
+     * @param id the group id
+     * @return the number of groups updated, 0 if the code has been used up
+     */
+    int consumeCodeUse(long id);
+
+    /**
+     * Adds to the member count of a group in a single statement
+     *
+     * @param id    the group id
+     * @param delta the number of members that joined, or negative if they left
+     * @return the number of groups updated
+     */
+    int adjustMemberCount(long id, long delta);
+
+}
@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.repository;
+
+import me.rvbiljouw.awsum.model.UserGroup;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Optional;
+
+/**
+ * @author rvbiljouw
+ */
+class UserGroupRepositoryImpl implements UserGroupRepositoryCustom {
+    // Not a table; declaring it keeps Hibernate from clearing every cache region after an update
+    private static final String UPDATE_QUERY_SPACE = "user_group_update";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<UserGroup> findByCode(String code) {
+        return entityManager.unwrap(Session.class)
+                .bySimpleNaturalId(UserGroup.class)
+                .loadOptional(code);
+    }
+
+    @Override
+    @Transactional
+    public int consumeCodeUse(long id) {
+        final Session session = entityManager.unwrap(Session.class);
+        return evictIfUpdated(session, id, groupUpdate(session, "UserGroup.consumeCodeUse")
+                .setParameter("id", id)
+                .executeUpdate());
+    }
+
+    @Override
+    @Transactional
+    public int adjustMemberCount(long id, long delta) {
+        final Session session = entityManager.unwrap(Session.class);
+        return evictIfUpdated(session, id, groupUpdate(session, "UserGroup.adjustMemberCount")
+                .setParameter("id", id)
+                .setParameter("delta", delta)
+                .executeUpdate());
+    }
+
+    private static NativeQuery<?> groupUpdate(Session session, String name) {
+        return session.createNamedQuery(name)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(UPDATE_QUERY_SPACE);
+    }
+
+    private static int evictIfUpdated(Session session, long id, int updated) {
+        if (updated > 0) {
+            session.getSessionFactory().getCache().evictEntityData(UserGroup.class, id);
+            session.evict(session.getReference(UserGroup.class, id));
+        }
+        return updated;
+    }
+}
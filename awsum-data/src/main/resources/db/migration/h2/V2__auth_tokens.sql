@@ -0,0 +1,19 @@
+-- Auth tokens are stored as their SHA-256 digest instead of in plain text, and expire
+alter table auth_token add column token_hash binary(32);
+alter table auth_token add column expires_at timestamp;
+alter table auth_token add column last_used_at timestamp;
+
+update auth_token set token_hash = hash('SHA256', stringtoutf8(token), 1) where token is not null;
+alter table auth_token drop column token;
+
+-- Tokens from before expiry existed get the default TTL of 90 days from the upgrade
+update auth_token set expires_at = dateadd('DAY', 90, localtimestamp), last_used_at = localtimestamp;
+
+-- Ids of revoked signed tokens, kept until the tokens would have expired anyway
+create table revoked_token (
+    id         bigint       not null,
+    token_id   varchar(255) not null,
+    expires_at timestamp    not null,
+    created_at timestamp    not null,
+    primary key (id)
+);
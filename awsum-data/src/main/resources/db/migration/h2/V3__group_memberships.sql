@@ -0,0 +1,25 @@
+-- Members are stored as membership rows with a role and join time, instead of a plain join table
+create table group_membership (
+    group_id   bigint      not null,
+    account_id bigint      not null,
+    role       varchar(16) not null,
+    joined_at  timestamp   not null,
+    primary key (account_id, group_id),
+    constraint fk_group_membership_group foreign key (group_id) references user_group (id),
+    constraint fk_group_membership_account foreign key (account_id) references user_account (id)
+);
+
+-- Plain members keep their membership; they joined no earlier than the group was created
+insert into group_membership (group_id, account_id, role, joined_at)
+select distinct m.user_group_id, m.members_id, 'MEMBER', ug.created_at
+from user_group_members m
+         join user_group ug on ug.id = m.user_group_id
+where ug.owner_id is null or m.members_id <> ug.owner_id;
+
+-- Owners get a membership for their own group, which they joined when they created it
+insert into group_membership (group_id, account_id, role, joined_at)
+select ug.id, ug.owner_id, 'OWNER', ug.created_at
+from user_group ug
+where ug.owner_id is not null;
+
+drop table user_group_members;
@@ -0,0 +1,33 @@
+-- Normalized names, join code limits, and the versioned member count of groups
+alter table user_group add column normalized_name varchar(255);
+alter table user_group add column code_expires_at timestamp;
+alter table user_group add column code_max_uses bigint;
+alter table user_group add column code_uses bigint default 0 not null;
+alter table user_group add column member_count bigint default 0 not null;
+alter table user_group add column version bigint default 0;
+
+-- Names are unique ignoring case; unnamed groups are named after their id first
+update user_group
+set name = 'group ' || id
+where name is null;
+
+update user_group
+set normalized_name = lower(trim(name));
+
+-- The oldest group keeps a name that differs only in case, later ones get their id appended
+update user_group
+set name            = name || ' (' || id || ')',
+    normalized_name = normalized_name || ' (' || id || ')'
+where id in (select ranked.id
+             from (select id, row_number() over (partition by normalized_name order by created_at, id) as name_rank
+                   from user_group) ranked
+             where ranked.name_rank > 1);
+
+alter table user_group alter column normalized_name set not null;
+
+-- Owners aren't counted as members of their own group
+update user_group
+set member_count = (select count(*)
+                    from group_membership gm
+                    where gm.group_id = user_group.id
+                      and gm.role = 'MEMBER');
@@ -0,0 +1,13 @@
+-- A pooled id sequence per entity, instead of the shared hibernate_sequence
+create sequence user_account_seq start with 1 increment by 50;
+create sequence auth_token_seq start with 1 increment by 50;
+create sequence revoked_token_seq start with 1 increment by 50;
+create sequence user_group_seq start with 1 increment by 50;
+
+-- Existing rows took their ids from hibernate_sequence, so each sequence continues above its table
+alter sequence user_account_seq restart with (select coalesce(max(id), 0) + 1 from user_account);
+alter sequence auth_token_seq restart with (select coalesce(max(id), 0) + 1 from auth_token);
+alter sequence revoked_token_seq restart with (select coalesce(max(id), 0) + 1 from revoked_token);
+alter sequence user_group_seq restart with (select coalesce(max(id), 0) + 1 from user_group);
+
+drop sequence hibernate_sequence;
@@ -0,0 +1,3 @@
+-- When the stored Spotify access token expires, so it can be refreshed ahead of time
+alter table user_account add column spotify_token_expires_at timestamp;
+create index idx_user_account_spotify_token_expires_at on user_account (spotify_token_expires_at);
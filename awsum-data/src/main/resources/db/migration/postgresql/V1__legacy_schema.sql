@@ -0,0 +1,43 @@
+-- The schema as Hibernate generated it before migrations were introduced. Existing databases are
+-- baselined at this version (spring.flyway.baseline-on-migrate), new ones start from it.
+
+create sequence hibernate_sequence start with 1 increment by 1;
+
+create table user_account (
+    id                    bigint       not null,
+    created_at            timestamp    not null,
+    display_name          varchar(255) not null,
+    spotify_access_token  varchar(255),
+    spotify_id            varchar(255),
+    spotify_refresh_token varchar(255),
+    updated_at            timestamp,
+    primary key (id)
+);
+
+create table auth_token (
+    id         bigint    not null,
+    created_at timestamp not null,
+    token      varchar(255),
+    updated_at timestamp,
+    account_id bigint,
+    primary key (id),
+    constraint fk_auth_token_account foreign key (account_id) references user_account (id)
+);
+
+create table user_group (
+    id         bigint    not null,
+    code       varchar(255),
+    created_at timestamp not null,
+    name       varchar(255),
+    updated_at timestamp,
+    owner_id   bigint,
+    primary key (id),
+    constraint fk_user_group_owner foreign key (owner_id) references user_account (id)
+);
+
+create table user_group_members (
+    user_group_id bigint not null,
+    members_id    bigint not null,
+    constraint fk_user_group_members_group foreign key (user_group_id) references user_group (id),
+    constraint fk_user_group_members_account foreign key (members_id) references user_account (id)
+);
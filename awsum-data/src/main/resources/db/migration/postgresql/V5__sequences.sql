@@ -0,0 +1,13 @@
+-- A pooled id sequence per entity, instead of the shared hibernate_sequence
+create sequence user_account_seq start with 1 increment by 50;
+create sequence auth_token_seq start with 1 increment by 50;
+create sequence revoked_token_seq start with 1 increment by 50;
+create sequence user_group_seq start with 1 increment by 50;
+
+-- Existing rows took their ids from hibernate_sequence, so each sequence continues above its table
+select setval('user_account_seq', coalesce(max(id), 0) + 1, false) from user_account;
+select setval('auth_token_seq', coalesce(max(id), 0) + 1, false) from auth_token;
+select setval('revoked_token_seq', coalesce(max(id), 0) + 1, false) from revoked_token;
+select setval('user_group_seq', coalesce(max(id), 0) + 1, false) from user_group;
+
+drop sequence hibernate_sequence;
@@ -0,0 +1,95 @@
+-- Indexes for every lookup and sort order the named queries use. Composite indexes end in the
+-- columns the matching queries sort by, so pages are read off the index instead of sorted.
+
+-- Racing logins created more than one account for some Spotify ids. Each of them is merged into
+-- the first account created for its id, which takes over the newest Spotify tokens, auth tokens,
+-- owned groups and memberships of the others, before the others are deleted.
+create table account_merge as
+select a.id as duplicate_id, k.keep_id
+from user_account a
+         join (select spotify_id, min(id) as keep_id
+               from user_account
+               where spotify_id is not null
+               group by spotify_id
+               having count(*) > 1) k on k.spotify_id = a.spotify_id and a.id <> k.keep_id;
+
+update user_account
+set spotify_access_token  = (select d.spotify_access_token
+                             from user_account d
+                             where d.spotify_id = user_account.spotify_id
+                             order by coalesce(d.updated_at, d.created_at) desc, d.id desc
+                             limit 1),
+    spotify_refresh_token = (select d.spotify_refresh_token
+                             from user_account d
+                             where d.spotify_id = user_account.spotify_id
+                             order by coalesce(d.updated_at, d.created_at) desc, d.id desc
+                             limit 1)
+where id in (select keep_id from account_merge);
+
+update auth_token
+set account_id = (select m.keep_id from account_merge m where m.duplicate_id = auth_token.account_id)
+where account_id in (select duplicate_id from account_merge);
+
+update user_group
+set owner_id = (select m.keep_id from account_merge m where m.duplicate_id = user_group.owner_id)
+where owner_id in (select duplicate_id from account_merge);
+
+-- A kept account takes over the memberships of its duplicates, and owns the groups they owned
+update group_membership
+set role = 'OWNER'
+where role <> 'OWNER'
+  and exists(select 1
+             from account_merge m
+                      join group_membership d on d.account_id = m.duplicate_id
+             where m.keep_id = group_membership.account_id
+               and d.group_id = group_membership.group_id
+               and d.role = 'OWNER');
+
+insert into group_membership (group_id, account_id, role, joined_at)
+select d.group_id, m.keep_id, max(d.role), min(d.joined_at)
+from group_membership d
+         join account_merge m on m.duplicate_id = d.account_id
+where not exists(select 1
+                 from group_membership k
+                 where k.account_id = m.keep_id
+                   and k.group_id = d.group_id)
+group by d.group_id, m.keep_id;
+
+delete from group_membership where account_id in (select duplicate_id from account_merge);
+
+update user_group
+set member_count = (select count(*)
+                    from group_membership gm
+                    where gm.group_id = user_group.id
+                      and gm.role = 'MEMBER')
+where id in (select gm.group_id
+             from group_membership gm
+             where gm.account_id in (select keep_id from account_merge));
+
+delete from user_account where id in (select duplicate_id from account_merge);
+drop table account_merge;
+
+-- Accounts are looked up by Spotify id on every login
+create unique index idx_user_account_spotify_id on user_account (spotify_id);
+
+-- Token lookups by digest and expiry sweeps
+create unique index idx_auth_token_hash on auth_token (token_hash);
+create index idx_auth_token_account on auth_token (account_id);
+create index idx_auth_token_expires_at on auth_token (expires_at);
+create index idx_auth_token_last_used_at on auth_token (last_used_at);
+create index idx_auth_token_created_at on auth_token (created_at);
+
+create unique index idx_revoked_token_token_id on revoked_token (token_id);
+create index idx_revoked_token_expires_at on revoked_token (expires_at);
+
+-- Join codes and group names are unique; listings page newest first, by owner or overall
+create unique index idx_user_group_code on user_group (code);
+create unique index idx_user_group_normalized_name on user_group (normalized_name);
+create index idx_user_group_owner_created on user_group (owner_id, created_at, id);
+create index idx_user_group_created on user_group (created_at, id);
+
+-- The primary key covers memberships by account; these cover members by group in join order,
+-- and the groups an account belongs to by join time, with or without a role, for cursor paging
+create index idx_group_membership_group_joined on group_membership (group_id, joined_at, account_id);
+create index idx_group_membership_account_role on group_membership (account_id, role, joined_at, group_id);
+create index idx_group_membership_account_joined on group_membership (account_id, joined_at, group_id);
@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.spotify;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * A circuit breaker for calls to Spotify. It keeps the outcomes of the last calls, and opens once enough of them
+ * failed, after which calls fail right away instead of waiting on Spotify. After a while, a single trial call is let
+ * through; the circuit closes again if it succeeds, and stays open for another while if it doesn't.
+ * <p>
+ * Every call that is let through gets a {@link Permit}, and its outcome is recorded against that permit. Outcomes of
+ * calls that were let through before the circuit last changed state are dropped, so only the trial call decides
+ * whether a half-open circuit closes.
+ *
+ * @author rvbiljouw
+ */
+public class SpotifyCircuitBreaker {
+    private final boolean[] outcomes;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private int recorded;
+    private int next;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openUntil;
+    private boolean trialInFlight;
+    private long generation;
+
+    /**
+     * @param windowSize           the no. of most recent calls to compute the failure rate over
+     * @param minimumCalls         the no. of calls needed before the circuit can open
+     * @param failureRateThreshold the failure rate, between 0 and 1, at which the circuit opens
+     * @param openDuration         how long the circuit stays open before a trial call
+     */
+    public SpotifyCircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("Minimum calls must be between 1 and the window size.");
+        }
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @return a circuit breaker that opens when half of the last 20 calls failed, for 30 seconds
+     */
+    public static SpotifyCircuitBreaker withDefaults() {
+        return new SpotifyCircuitBreaker(20, 10, 0.5, Duration.ofSeconds(30));
+    }
+
+    /**
+     * Checks whether a call may be made. If it may, the call's outcome must be recorded against the permit.
+     *
+     * @return a permit if the call may be made
+     */
+    public synchronized Optional<Permit> tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return Optional.of(new Permit(generation));
+            case OPEN:
+                if (System.nanoTime() - openUntil < 0) {
+                    return Optional.empty();
+                }
+                state = State.HALF_OPEN;
+                generation++;
+                trialInFlight = true;
+                return Optional.of(new Permit(generation));
+            default:
+                if (trialInFlight) {
+                    return Optional.empty();
+                }
+                trialInFlight = true;
+                return Optional.of(new Permit(generation));
+        }
+    }
+
+    /**
+     * Records a call that Spotify answered, whether or not the answer was an error of the caller's making
+     *
+     * @param permit the permit the call was made with
+     */
+    public synchronized void onSuccess(Permit permit) {
+        if (permit.generation != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            close();
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a call that Spotify didn't answer, or answered with a server error
+     *
+     * @param permit the permit the call was made with
+     */
+    public synchronized void onFailure(Permit permit) {
+        if (permit.generation != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Records a call that was given up on before Spotify answered, e.g. because its caller cancelled it
+     * or it timed out while still queued
+     *
+     * @param permit the permit the call was made with
+     */
+    public synchronized void onIgnored(Permit permit) {
+        if (permit.generation == generation && state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openUntil = System.nanoTime() + openNanos;
+        trialInFlight = false;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        trialInFlight = false;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Permission to make one call, tied to the state of the circuit at the time it was given
+     */
+    public static final class Permit {
+        private final long generation;
+
+        private Permit(long generation) {
+            this.generation = generation;
+        }
+    }
+}
@@ -23,6 +23,7 @@
  */
 package me.rvbiljouw.awsum.spotify;
 
+import com.wrapper.spotify.IHttpManager;
 import com.wrapper.spotify.SpotifyApi;
 import com.wrapper.spotify.model_objects.credentials.AuthorizationCodeCredentials;
 import com.wrapper.spotify.model_objects.specification.User;
@@ -31,26 +32,39 @@ import me.rvbiljouw.awsum.spotify.exception.SpotifyException;
 import me.rvbiljouw.awsum.spotify.model.SpotifyToken;
 
 import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
 
 /**
+ * A client for the Spotify API, either for the app itself or scoped to a user's token.
+ * Clients derived from one another share the same {@link IHttpManager}, and with it the HTTP connections,
+ * as well as the {@link SpotifyExecutor} that runs the calls. Calls are only made through the executor,
+ * so none of them get around its rate limiter, priorities or circuit breaker.
+ *
  * @author rvbiljouw
  */
 public class SpotifyClient {
     private final SpotifyApi api;
+    private final SpotifyExecutor executor;
 
-    SpotifyClient(String clientId, String clientSecret, URI redirectURI, SpotifyToken token) {
+    SpotifyClient(String clientId, String clientSecret, URI redirectURI, SpotifyToken token,
+                  IHttpManager httpManager, SpotifyExecutor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("An executor is required.");
+        }
+        this.executor = executor;
         this.api = SpotifyApi.builder()
                 .setClientId(clientId)
                 .setClientSecret(clientSecret)
                 .setRedirectUri(redirectURI)
+                .setHttpManager(httpManager != null ? httpManager : SpotifyApi.DEFAULT_HTTP_MANAGER)
                 .build();
         if (token != null) {
-            this.api.setAccessToken(token.getAccessToken());
-            this.api.setRefreshToken(token.getRefreshToken());
+            updateToken(token);
         }
     }
 
-    public String getCurrentUserId() throws SpotifyException {
+    private String getCurrentUserId() throws SpotifyException {
         if (!isUserScoped()) {
             throw new SpotifyException("This client is not user-scoped. " +
                     "Make sure to supply a valid token upon construction.");
@@ -67,6 +81,15 @@ public class SpotifyClient {
         }
     }
 
+    /**
+     * Fetches the current user's ID without blocking the calling thread
+     *
+     * @return a future of the user ID
+     */
+    public CompletableFuture<String> getCurrentUserIdAsync() {
+        return executor.submit(this::getCurrentUserId);
+    }
+
     public String getAuthorizationURL() {
         return this.api
                 .authorizationCodeUri()
@@ -76,18 +99,83 @@ public class SpotifyClient {
                 .toString();
     }
 
-    public SpotifyToken getTokenForAuthorizationCode(String authorizationCode) throws SpotifyException {
+    private SpotifyToken getTokenForAuthorizationCode(String authorizationCode) throws SpotifyException {
         AuthorizationCodeRequest req = this.api
                 .authorizationCode(authorizationCode)
                 .build();
         try {
             AuthorizationCodeCredentials creds = req.execute();
-            return new SpotifyToken(creds.getAccessToken(), creds.getRefreshToken());
+            return toToken(creds, null);
         } catch (Throwable t) {
             throw new SpotifyException("Couldn't retrieve auth/refresh token.", t);
         }
     }
 
+    /**
+     * Exchanges an authorization code for a token without blocking the calling thread
+     *
+     * @param authorizationCode the authorization code
+     * @return a future of the token
+     */
+    public CompletableFuture<SpotifyToken> getTokenForAuthorizationCodeAsync(String authorizationCode) {
+        return executor.submit(() -> getTokenForAuthorizationCode(authorizationCode));
+    }
+
+    /**
+     * Exchanges this client's refresh token for a new access token. The client itself keeps its current
+     * token; see {@link #updateToken(SpotifyToken)}.
+     *
+     * @return the new token
+     * @throws SpotifyException if the token couldn't be refreshed
+     */
+    private SpotifyToken refreshToken() throws SpotifyException {
+        if (!isUserScoped()) {
+            throw new SpotifyException("This client is not user-scoped. " +
+                    "Make sure to supply a valid token upon construction.");
+        }
+
+        final String currentRefreshToken = this.api.getRefreshToken();
+        try {
+            AuthorizationCodeCredentials creds = this.api
+                    .authorizationCodeRefresh()
+                    .build()
+                    .execute();
+            return toToken(creds, currentRefreshToken);
+        } catch (Throwable t) {
+            throw new SpotifyException("Couldn't refresh access token.", t);
+        }
+    }
+
+    /**
+     * Refreshes this client's token without blocking the calling thread
+     *
+     * @return a future of the new token
+     */
+    public CompletableFuture<SpotifyToken> refreshTokenAsync() {
+        return refreshTokenAsync(SpotifyExecutor.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Refreshes this client's token without blocking the calling thread
+     *
+     * @param priority the priority of the refresh, e.g. background for refreshes no user is waiting on
+     * @return a future of the new token
+     */
+    public CompletableFuture<SpotifyToken> refreshTokenAsync(SpotifyExecutor.Priority priority) {
+        return executor.submit(priority, this::refreshToken);
+    }
+
+    /**
+     * Spotify doesn't always hand out a new refresh token, in which case the current one stays valid
+     */
+    private static SpotifyToken toToken(AuthorizationCodeCredentials creds, String currentRefreshToken) {
+        final String refreshToken = creds.getRefreshToken() != null ? creds.getRefreshToken() : currentRefreshToken;
+        final LocalDateTime expiresAt = creds.getExpiresIn() != null
+                ? LocalDateTime.now().plusSeconds(creds.getExpiresIn())
+                : null;
+        return new SpotifyToken(creds.getAccessToken(), refreshToken, expiresAt);
+    }
+
     private boolean isUserScoped() {
         return this.api.getAccessToken() != null && this.api.getRefreshToken() != null;
     }
@@ -97,7 +185,19 @@ public class SpotifyClient {
                 this.api.getClientId(),
                 this.api.getClientSecret(),
                 this.api.getRedirectURI(),
-                token);
+                token,
+                this.api.getHttpManager(),
+                this.executor);
+    }
+
+    /**
+     * Replaces the token of this client in place, e.g. after it has been refreshed
+     *
+     * @param token the new token
+     */
+    public void updateToken(SpotifyToken token) {
+        this.api.setAccessToken(token.getAccessToken());
+        this.api.setRefreshToken(token.getRefreshToken());
     }
 
     public static class Builder {
@@ -105,6 +205,8 @@ public class SpotifyClient {
         private String clientSecret;
         private URI redirectURI;
         private SpotifyToken token;
+        private IHttpManager httpManager;
+        private SpotifyExecutor executor;
 
         public Builder setClientId(String clientId) {
             this.clientId = clientId;
@@ -130,8 +232,18 @@ public class SpotifyClient {
             return this;
         }
 
+        public Builder setHttpManager(IHttpManager httpManager) {
+            this.httpManager = httpManager;
+            return this;
+        }
+
+        public Builder setExecutor(SpotifyExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
         public SpotifyClient build() {
-            return new SpotifyClient(clientId, clientSecret, redirectURI, token);
+            return new SpotifyClient(clientId, clientSecret, redirectURI, token, httpManager, executor);
         }
 
     }
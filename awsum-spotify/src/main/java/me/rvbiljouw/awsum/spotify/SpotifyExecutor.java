@@ -0,0 +1,342 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.spotify;
+
+import com.wrapper.spotify.exceptions.detailed.BadGatewayException;
+import com.wrapper.spotify.exceptions.detailed.InternalServerErrorException;
+import com.wrapper.spotify.exceptions.detailed.ServiceUnavailableException;
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import me.rvbiljouw.awsum.spotify.exception.SpotifyException;
+import me.rvbiljouw.awsum.spotify.exception.SpotifyUnavailableException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs blocking Spotify calls on a bounded pool of its own, so the caller's thread is free while they're in flight.
+ * Calls wait in a queue until a thread and a permit from the {@link SpotifyRateLimiter} are available; interactive
+ * calls go before background ones, and calls of the same priority go in order. A call that Spotify rate-limits is
+ * queued again, and the limiter holds back all calls until its {@code Retry-After} has passed.
+ * <p>
+ * Calls that aren't done within the timeout, queueing and retries included, fail with a {@link SpotifyException},
+ * and a call whose future is cancelled or times out is interrupted. When the queue is full, or the
+ * {@link SpotifyCircuitBreaker} is open because too many calls recently timed out or failed on Spotify's end, new
+ * calls fail right away with a {@link SpotifyUnavailableException} instead of piling up. The pool is the bulkhead
+ * for Spotify: no other work ever waits on it.
+ *
+ * @author rvbiljouw
+ */
+public class SpotifyExecutor implements AutoCloseable {
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore idleThreads;
+    private final PriorityBlockingQueue<PendingCall<?>> queue;
+    private final int queueCapacity;
+    private final AtomicLong sequence = new AtomicLong();
+    private final SpotifyRateLimiter rateLimiter;
+    private final SpotifyCircuitBreaker circuitBreaker;
+    private final Thread dispatcher;
+    private final ScheduledExecutorService timeouts;
+    private final Duration timeout;
+    private volatile boolean closed;
+
+    public SpotifyExecutor(int threads, int queueCapacity, Duration timeout) {
+        this(threads, queueCapacity, timeout, SpotifyRateLimiter.unlimited(), SpotifyCircuitBreaker.withDefaults());
+    }
+
+    public SpotifyExecutor(int threads, int queueCapacity, Duration timeout, SpotifyRateLimiter rateLimiter,
+                           SpotifyCircuitBreaker circuitBreaker) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("spotify-"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.idleThreads = new Semaphore(threads);
+        this.queue = new PriorityBlockingQueue<>(Math.min(queueCapacity, 64), Comparator
+                .<PendingCall<?>, Priority>comparing(call -> call.priority)
+                .thenComparingLong(call -> call.sequence));
+        this.queueCapacity = queueCapacity;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.timeouts = Executors.newSingleThreadScheduledExecutor(daemonThreads("spotify-timeout-"));
+        this.timeout = timeout;
+        this.dispatcher = daemonThreads("spotify-dispatcher-").newThread(this::dispatch);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Submits an interactive call
+     *
+     * @param call the blocking call
+     * @return a future of the call's result, which can be cancelled
+     */
+    public <T> CompletableFuture<T> submit(SpotifyCall<T> call) {
+        return submit(Priority.INTERACTIVE, call);
+    }
+
+    /**
+     * Submits a call
+     *
+     * @param priority the priority of the call
+     * @param call     the blocking call
+     * @return a future of the call's result, which can be cancelled
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, SpotifyCall<T> call) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        if (closed || queue.size() >= queueCapacity) {
+            result.completeExceptionally(new SpotifyUnavailableException("Too many Spotify calls in flight.",
+                    new RejectedExecutionException()));
+            return result;
+        }
+        final Optional<SpotifyCircuitBreaker.Permit> permit = circuitBreaker.tryAcquire();
+        if (!permit.isPresent()) {
+            result.completeExceptionally(new SpotifyUnavailableException("Spotify is unavailable."));
+            return result;
+        }
+
+        final PendingCall<T> pending = new PendingCall<>(priority, sequence.getAndIncrement(), call, result, permit.get());
+        queue.add(pending);
+
+        final ScheduledFuture<?> expiry = timeouts.schedule(() -> result.completeExceptionally(
+                new SpotifyUnavailableException("Spotify didn't respond within " + timeout.toMillis() + "ms.",
+                        new TimeoutException())),
+                timeout.toMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((value, t) -> {
+            expiry.cancel(false);
+            if (t != null) {
+                queue.remove(pending);
+                pending.cancel();
+            }
+            recordOutcome(pending, t);
+        });
+        return result;
+    }
+
+    /**
+     * @return the no. of calls waiting for a thread or a permit
+     */
+    public int getQueuedCalls() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        executor.shutdownNow();
+        timeouts.shutdownNow();
+
+        PendingCall<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new SpotifyException("Spotify executor was closed."));
+        }
+    }
+
+    /**
+     * Hands queued calls to the pool, one per permit, as threads become idle. The permit is only asked for once
+     * there is a call to make, so a {@code Retry-After} pause that starts while waiting for calls is still honoured.
+     * The call is then queued again and the head is taken, in case a more urgent call came in during the wait.
+     */
+    private void dispatch() {
+        try {
+            while (!closed) {
+                idleThreads.acquire();
+                final PendingCall<?> waiting = takeLive();
+                rateLimiter.acquire();
+                if (!waiting.result.isDone()) {
+                    queue.add(waiting);
+                }
+                start(takeLive());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PendingCall<?> takeLive() throws InterruptedException {
+        PendingCall<?> next;
+        do {
+            next = queue.take();
+        } while (next.result.isDone());
+        return next;
+    }
+
+    private void start(PendingCall<?> pending) {
+        pending.started = true;
+        try {
+            pending.task = executor.submit(() -> {
+                try {
+                    run(pending);
+                } finally {
+                    idleThreads.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            idleThreads.release();
+            pending.started = false;
+            pending.result.completeExceptionally(new SpotifyException("Spotify executor was closed.", e));
+            return;
+        }
+        if (pending.result.isDone()) {
+            pending.cancel();
+        }
+    }
+
+    private <T> void run(PendingCall<T> pending) {
+        try {
+            final T value = pending.call.execute();
+            recordOutcome(pending, null);
+            pending.result.complete(value);
+        } catch (Throwable t) {
+            final TooManyRequestsException tooManyRequests = findTooManyRequests(t);
+            if (tooManyRequests == null || closed) {
+                recordOutcome(pending, t);
+                pending.result.completeExceptionally(t);
+                return;
+            }
+
+            rateLimiter.pauseFor(tooManyRequests.getRetryAfter() > 0
+                    ? Duration.ofSeconds(tooManyRequests.getRetryAfter())
+                    : DEFAULT_RETRY_AFTER);
+            if (!pending.result.isDone()) {
+                pending.started = false;
+                pending.task = null;
+                queue.add(pending);
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a call with the circuit breaker, once per call. Calls that finish record it before
+     * their result is completed, so callers see it reflected. Calls that never got to Spotify, e.g. because they
+     * timed out or were cancelled while queued, say nothing about Spotify's health and are ignored.
+     */
+    private void recordOutcome(PendingCall<?> pending, Throwable t) {
+        if (!pending.recorded.compareAndSet(false, true)) {
+            return;
+        }
+        if (!pending.started || t instanceof CancellationException) {
+            circuitBreaker.onIgnored(pending.permit);
+        } else if (t != null && isUnavailable(t)) {
+            circuitBreaker.onFailure(pending.permit);
+        } else {
+            circuitBreaker.onSuccess(pending.permit);
+        }
+    }
+
+    /**
+     * @return whether the failure is on Spotify's end, as opposed to e.g. an invalid authorization code
+     */
+    private static boolean isUnavailable(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SpotifyUnavailableException
+                    || cause instanceof IOException
+                    || cause instanceof TimeoutException
+                    || cause instanceof ServiceUnavailableException
+                    || cause instanceof BadGatewayException
+                    || cause instanceof InternalServerErrorException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TooManyRequestsException findTooManyRequests(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TooManyRequestsException) {
+                return (TooManyRequestsException) cause;
+            }
+        }
+        return null;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The priority of a call. Interactive calls are the ones a user is waiting on, such as the OAuth callback.
+     */
+    public enum Priority {
+        INTERACTIVE, BACKGROUND
+    }
+
+    /**
+     * A blocking call to Spotify
+     */
+    @FunctionalInterface
+    public interface SpotifyCall<T> {
+        T execute() throws SpotifyException;
+    }
+
+    private static final class PendingCall<T> {
+        private final Priority priority;
+        private final long sequence;
+        private final SpotifyCall<T> call;
+        private final CompletableFuture<T> result;
+        private final SpotifyCircuitBreaker.Permit permit;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        private volatile boolean started;
+        private volatile Future<?> task;
+
+        private PendingCall(Priority priority, long sequence, SpotifyCall<T> call, CompletableFuture<T> result,
+                            SpotifyCircuitBreaker.Permit permit) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.call = call;
+            this.result = result;
+            this.permit = permit;
+        }
+
+        private void cancel() {
+            final Future<?> running = task;
+            if (running != null) {
+                running.cancel(true);
+            }
+        }
+    }
+}
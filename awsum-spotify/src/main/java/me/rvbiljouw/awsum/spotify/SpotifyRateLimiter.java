@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Rick van Biljouw
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.rvbiljouw.awsum.spotify;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that meters calls to Spotify, which rate-limits per app. The bucket refills at a fixed rate
+ * up to a burst size. When Spotify answers with {@code 429 Too Many Requests}, no permits are handed out at all
+ * until its {@code Retry-After} has passed.
+ *
+ * @author rvbiljouw
+ */
+public class SpotifyRateLimiter {
+    private final double permitsPerNano;
+    private final double burst;
+    private double permits;
+    private long refilledAt;
+    private long pausedUntil;
+
+    /**
+     * @param permitsPerSecond the sustained no. of calls per second
+     * @param burst            the no. of calls that may be made at once after a quiet period
+     */
+    public SpotifyRateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive.");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.permits = burst;
+        this.refilledAt = System.nanoTime();
+        this.pausedUntil = refilledAt;
+    }
+
+    /**
+     * @return a limiter that only pauses for {@code Retry-After}
+     */
+    public static SpotifyRateLimiter unlimited() {
+        return new SpotifyRateLimiter(Double.POSITIVE_INFINITY, 1);
+    }
+
+    /**
+     * Blocks until a call may be made
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        while ((wait = reserve()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Takes a permit if one is available
+     *
+     * @return 0 if a permit was taken, or else the no. of nanoseconds until one may be available
+     */
+    public synchronized long reserve() {
+        final long now = System.nanoTime();
+        if (now - pausedUntil < 0) {
+            return pausedUntil - now;
+        }
+        if (Double.isInfinite(permitsPerNano)) {
+            return 0;
+        }
+        permits = Math.min(burst, permits + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+        if (permits >= 1) {
+            permits -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - permits) / permitsPerNano));
+    }
+
+    /**
+     * Stops handing out permits for a while, e.g. for the {@code Retry-After} of a rate-limited call.
+     * Permits saved up before the pause are dropped, so calls don't burst right after it.
+     *
+     * @param duration how long to pause for
+     */
+    public synchronized void pauseFor(Duration duration) {
+        final long until = System.nanoTime() + duration.toNanos();
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+            permits = 0;
+            refilledAt = until;
+        }
+    }
+
+    /**
+     * @return whether calls are paused for a {@code Retry-After}
+     */
+    public synchronized boolean isPaused() {
+        return System.nanoTime() - pausedUntil < 0;
+    }
+}
@@ -23,16 +23,26 @@
  */
 package me.rvbiljouw.awsum.spotify.model;
 
+import java.time.LocalDateTime;
+
 /**
+ * An access/refresh token pair, with the time the access token expires if Spotify told us
+ *
  * @author rvbiljouw
  */
 public final class SpotifyToken {
     private final String accessToken;
     private final String refreshToken;
+    private final LocalDateTime expiresAt;
 
     public SpotifyToken(String accessToken, String refreshToken) {
+        this(accessToken, refreshToken, null);
+    }
+
+    public SpotifyToken(String accessToken, String refreshToken, LocalDateTime expiresAt) {
         this.accessToken = accessToken;
         this.refreshToken = refreshToken;
+        this.expiresAt = expiresAt;
     }
 
     public String getAccessToken() {
@@ -42,4 +52,11 @@ public final class SpotifyToken {
     public String getRefreshToken() {
         return refreshToken;
     }
+
+    /**
+     * @return when the access token expires, or null if unknown
+     */
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
 }
@@ -0,0 +1,70 @@
+package me.rvbiljouw.awsum.spotify;
+
+import me.rvbiljouw.awsum.spotify.exception.SpotifyException;
+import me.rvbiljouw.awsum.spotify.exception.SpotifyUnavailableException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpotifyCircuitBreakerTest {
+
+    @Test
+    void circuitOpensWhenSpotifyFails() {
+        final SpotifyCircuitBreaker circuitBreaker = new SpotifyCircuitBreaker(4, 4, 0.5, Duration.ofMinutes(1));
+        final SpotifyExecutor executor = new SpotifyExecutor(1, 10, Duration.ofSeconds(5),
+                SpotifyRateLimiter.unlimited(), circuitBreaker);
+        try {
+            final AtomicInteger attempts = new AtomicInteger();
+            for (int i = 0; i < 4; i++) {
+                executor.submit(() -> {
+                    attempts.incrementAndGet();
+                    throw new SpotifyException("Spotify is down.", new IOException("Connection refused"));
+                }).handle((value, t) -> t).join();
+            }
+            assertEquals(SpotifyCircuitBreaker.State.OPEN, circuitBreaker.getState(), "Circuit didn't open.");
+
+            final Throwable rejected = executor.submit(() -> "user-id").handle((value, t) -> t).join();
+            assertTrue(rejected instanceof SpotifyUnavailableException, "Call wasn't rejected.");
+            assertEquals(4, attempts.get(), "Rejected call was made.");
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    void callsTimingOutInTheQueueDontOpenTheCircuit() {
+        final SpotifyRateLimiter rateLimiter = SpotifyRateLimiter.unlimited();
+        final SpotifyCircuitBreaker circuitBreaker = new SpotifyCircuitBreaker(1, 1, 0.5, Duration.ofMinutes(1));
+        final SpotifyExecutor executor = new SpotifyExecutor(1, 10, Duration.ofMillis(100), rateLimiter, circuitBreaker);
+        try {
+            rateLimiter.pauseFor(Duration.ofMinutes(1));
+            final Throwable timedOut = executor.submit(() -> "user-id").handle((value, t) -> t).join();
+
+            assertTrue(timedOut instanceof SpotifyUnavailableException, "Queued call didn't time out.");
+            assertEquals(SpotifyCircuitBreaker.State.CLOSED, circuitBreaker.getState(), "Circuit opened.");
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    void onlyTheTrialCallClosesAHalfOpenCircuit() {
+        final SpotifyCircuitBreaker circuitBreaker = new SpotifyCircuitBreaker(1, 1, 0.5, Duration.ZERO);
+        final SpotifyCircuitBreaker.Permit stale = circuitBreaker.tryAcquire().get();
+        circuitBreaker.onFailure(circuitBreaker.tryAcquire().get());
+        assertEquals(SpotifyCircuitBreaker.State.OPEN, circuitBreaker.getState(), "Circuit didn't open.");
+
+        final SpotifyCircuitBreaker.Permit trial = circuitBreaker.tryAcquire().get();
+        circuitBreaker.onSuccess(stale);
+        assertEquals(SpotifyCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(), "A stale call closed the circuit.");
+
+        circuitBreaker.onSuccess(trial);
+        assertEquals(SpotifyCircuitBreaker.State.CLOSED, circuitBreaker.getState(), "The trial call didn't close the circuit.");
+    }
+
+}
@@ -0,0 +1,92 @@
+package me.rvbiljouw.awsum.spotify;
+
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import me.rvbiljouw.awsum.spotify.SpotifyExecutor.Priority;
+import me.rvbiljouw.awsum.spotify.exception.SpotifyException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpotifyExecutorTest {
+
+    @Test
+    void rateLimitedCallsAreRetriedAfterRetryAfter() {
+        final SpotifyExecutor executor = new SpotifyExecutor(1, 10, Duration.ofSeconds(5));
+        try {
+            final AtomicInteger attempts = new AtomicInteger();
+            final long start = System.nanoTime();
+            final CompletableFuture<String> result = executor.submit(() -> {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new SpotifyException("Rate limited.", new TooManyRequestsException("Too many requests.", 1));
+                }
+                return "user-id";
+            });
+
+            assertEquals("user-id", result.join(), "Rate-limited call wasn't retried.");
+            assertEquals(2, attempts.get(), "Wrong no. of attempts.");
+            assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1), "Retry didn't wait for Retry-After.");
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    void pauseStartedWhileIdleHoldsBackTheNextCall() throws Exception {
+        final SpotifyRateLimiter rateLimiter = SpotifyRateLimiter.unlimited();
+        final SpotifyExecutor executor = new SpotifyExecutor(1, 10, Duration.ofSeconds(5),
+                rateLimiter, SpotifyCircuitBreaker.withDefaults());
+        try {
+            executor.submit(() -> "warm-up").join();
+            // Lets the dispatcher get back to waiting for the next call
+            Thread.sleep(100);
+
+            rateLimiter.pauseFor(Duration.ofSeconds(1));
+            final long start = System.nanoTime();
+            executor.submit(() -> "user-id").join();
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900), "Call didn't wait for the pause.");
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    void interactiveCallsGoBeforeBackgroundCalls() throws Exception {
+        final SpotifyExecutor executor = new SpotifyExecutor(1, 10, Duration.ofSeconds(5));
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final List<String> order = Collections.synchronizedList(new ArrayList<>());
+            executor.submit(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "blocking";
+            });
+            started.await();
+
+            final CompletableFuture<Boolean> background = executor.submit(Priority.BACKGROUND, () -> order.add("background"));
+            final CompletableFuture<Boolean> interactive = executor.submit(Priority.INTERACTIVE, () -> order.add("interactive"));
+            release.countDown();
+            CompletableFuture.allOf(background, interactive).join();
+
+            assertEquals(Arrays.asList("interactive", "background"), order, "Calls ran in the wrong order.");
+        } finally {
+            executor.close();
+        }
+    }
+
+}